@@ -0,0 +1,68 @@
+package nl.utwente.processing.benchmark;
+
+import net.sourceforge.pmd.RuleViolation;
+import net.sourceforge.pmd.renderers.AbstractIncrementingRenderer;
+import nl.utwente.processing.ProcessingProject;
+import nl.utwente.processing.pmd.PMDException;
+import nl.utwente.processing.pmd.PMDRunner;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/** End to end analysis of a project: conversion, parsing, all rules and rendering the violations */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PMDRunnerBenchmark {
+    @Param({"100", "1000", "5000", "20000"})
+    public int lines;
+
+    private PMDRunner runner;
+    private ProcessingProject project;
+
+    /** Renderer that only counts the violations, so the benchmark measures the analysis itself */
+    private static class CountingRenderer extends AbstractIncrementingRenderer {
+        private int violations = 0;
+
+        CountingRenderer() {
+            super("Counting", "Counts the violations");
+            setWriter(Writer.nullWriter());
+        }
+
+        @Override
+        public String defaultFileExtension() {
+            return "";
+        }
+
+        @Override
+        public void renderFileViolations(Iterator<RuleViolation> iterator) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                violations++;
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        runner = new PMDRunner();
+        project = SketchGenerator.generateProject(lines);
+    }
+
+    @TearDown
+    public void tearDown() {
+        runner.close();
+    }
+
+    @Benchmark
+    public int run() throws PMDException {
+        var renderer = new CountingRenderer();
+        runner.Run(project, renderer);
+        return renderer.violations;
+    }
+}
@@ -0,0 +1,60 @@
+package nl.utwente.processing.benchmark;
+
+import nl.utwente.processing.ProcessingConverter;
+import nl.utwente.processing.ProcessingFile;
+import nl.utwente.processing.ProcessingProject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Conversion of Processing code to Java, and mapping the lines PMD reports back to the Processing files */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectBenchmark {
+    @Param({"100", "1000", "5000", "20000"})
+    public int lines;
+
+    private List<ProcessingFile> files;
+    private ProcessingProject project;
+    private int javaLines;
+
+    @Setup
+    public void setUp() {
+        files = SketchGenerator.generateFiles(lines);
+        project = new ProcessingProject(files);
+        javaLines = (int) project.getJavaProjectCode().chars().filter(ch -> ch == '\n').count() + 1;
+    }
+
+    /** Convert every file to Java, as happens when the files of a submission are downloaded */
+    @Benchmark
+    public void convertFiles(Blackhole blackhole) {
+        for (var file : files) {
+            blackhole.consume(ProcessingConverter.convert(file.getContent()));
+        }
+    }
+
+    /** Join the converted files into the Java code of the project */
+    @Benchmark
+    public String toJava() {
+        return new ProcessingProject(files).getJavaProjectCode();
+    }
+
+    /** Map every line of the Java code back to its Processing file */
+    @Benchmark
+    public void mapJavaProjectLineNumber(Blackhole blackhole) {
+        for (int line = 1; line <= javaLines; line++) {
+            try {
+                blackhole.consume(project.mapJavaProjectLineNumber(line));
+            } catch (IndexOutOfBoundsException e) {
+                // The lines of the class around the project are not in a file
+                blackhole.consume(e);
+            }
+        }
+    }
+}
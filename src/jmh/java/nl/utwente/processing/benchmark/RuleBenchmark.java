@@ -0,0 +1,88 @@
+package nl.utwente.processing.benchmark;
+
+import net.sourceforge.pmd.*;
+import net.sourceforge.pmd.lang.LanguageRegistry;
+import net.sourceforge.pmd.lang.LanguageVersion;
+import net.sourceforge.pmd.lang.ast.Node;
+import net.sourceforge.pmd.lang.java.JavaLanguageModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single custom rule from nl.utwente.processing.pmd.rules, applied to a project that is parsed before every
+ * invocation. The parsing, symbol table and type resolution are not part of the measurement. Building the analysis
+ * context and call graphs the rule needs is, as these are stored on the tree and shared by the rules of a run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleBenchmark {
+    private static final String FILE_NAME = "Processing.pde";
+
+    @Param({
+        "DecentralizedDrawingRule",
+        "DecentralizedEventHandlingRule",
+        "GodClassRule",
+        "LongMethodRule",
+        "LongParameterListRule",
+        "OutOfScopeStateChangeRule",
+        "PixelHardcodeIgnoranceRule",
+        "StatelessClassRule"
+    })
+    public String rule;
+
+    @Param({"100", "1000", "5000", "20000"})
+    public int lines;
+
+    private Rule ruleTemplate;
+    private RuleSetFactory ruleSetFactory;
+    private PMDConfiguration config;
+    private LanguageVersion languageVersion;
+    private String code;
+    private List<Node> nodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        config = new PMDConfiguration();
+        ruleSetFactory = RulesetsFactoryUtils.createFactory(config);
+        ruleTemplate = RulesetsFactoryUtils.getRuleSets("rulesets/processing.xml", ruleSetFactory).getRuleByName(rule);
+        if (ruleTemplate == null)
+            throw new IllegalArgumentException("Unknown rule " + rule);
+
+        languageVersion = LanguageRegistry.getLanguage(JavaLanguageModule.NAME).getDefaultVersion();
+        code = SketchGenerator.generateProject(lines).getJavaProjectCode();
+    }
+
+    /** Parse the project again, so no invocation gets the analysis context of the one before it */
+    @Setup(Level.Invocation)
+    public void parse() {
+        // The same steps as PMD's SourceCodeProcessor takes before it applies the rules
+        var handler = languageVersion.getLanguageVersionHandler();
+        var root = PMD.parserFor(languageVersion, config).parse(FILE_NAME, new StringReader(code));
+        handler.getQualifiedNameResolutionFacade(config.getClassLoader()).start(root);
+        handler.getSymbolFacade(config.getClassLoader()).start(root);
+        handler.getTypeResolutionFacade(config.getClassLoader()).start(root);
+        nodes = List.of(root);
+    }
+
+    @Benchmark
+    public int apply() {
+        // Rules keep state while visiting a file, so every invocation gets a fresh copy, like PMDRunner does
+        var ruleSets = new RuleSets(ruleSetFactory.createSingleRuleRuleSet(ruleTemplate.deepCopy()));
+        var context = new RuleContext();
+        var report = new Report();
+        context.setReport(report);
+        context.setSourceCodeFilename(FILE_NAME);
+        context.setLanguageVersion(languageVersion);
+        ruleSets.start(context);
+        ruleSets.apply(nodes, context, languageVersion.getLanguage());
+        ruleSets.end(context);
+        return report.size();
+    }
+}
@@ -0,0 +1,109 @@
+package nl.utwente.processing.benchmark;
+
+import nl.utwente.processing.ProcessingFile;
+import nl.utwente.processing.ProcessingProject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates Processing sketches of a given size for the benchmarks. The sketches are made of small classes that use
+ * the Processing API the way student code does, including drawing outside of draw(), event variables outside of the
+ * event handlers, hardcoded pixels, long parameter lists and int() conversions, so every custom rule has work to do.
+ */
+public class SketchGenerator {
+    /** The number of lines per file, a large sketch is split into tabs like a real project */
+    private static final int LINES_PER_FILE = 2000;
+
+    private SketchGenerator() {
+    }
+
+    /** Generate a project of roughly the given number of lines */
+    public static ProcessingProject generateProject(int lines) {
+        return new ProcessingProject(generateFiles(lines));
+    }
+
+    /** Generate the files of a project of roughly the given number of lines */
+    public static List<ProcessingFile> generateFiles(int lines) {
+        var files = new ArrayList<ProcessingFile>();
+        var main = new StringBuilder();
+        main.append("import processing.sound.*;\n")
+            .append("int score = 0;\n")
+            .append("color background = #202020;\n")
+            .append("ArrayList<Shape0> shapes = new ArrayList<Shape0>();\n")
+            .append("\n")
+            .append("void setup() {\n")
+            .append("  size(800, 600);\n")
+            .append("  shapes.add(new Shape0(10, 20));\n")
+            .append("}\n")
+            .append("\n")
+            .append("void draw() {\n")
+            .append("  background(background);\n")
+            .append("  for (Shape0 shape : shapes) {\n")
+            .append("    shape.display();\n")
+            .append("  }\n")
+            .append("  if (mousePressed) score++;\n")
+            .append("}\n")
+            .append("\n")
+            .append("void mousePressed() {\n")
+            .append("  shapes.add(new Shape0(mouseX, mouseY));\n")
+            .append("}\n");
+        files.add(new ProcessingFile("file-0", "Main.pde", main.toString()));
+
+        var total = countLines(main);
+        var file = new StringBuilder();
+        var classIndex = 0;
+        while (total < lines) {
+            var block = shapeClass(classIndex++);
+            file.append(block);
+            total += countLines(block);
+            if (countLines(file) >= LINES_PER_FILE || total >= lines) {
+                files.add(new ProcessingFile("file-" + files.size(), "Shapes" + files.size() + ".pde",
+                    file.toString()));
+                file.setLength(0);
+            }
+        }
+        return files;
+    }
+
+    private static String shapeClass(int index) {
+        var name = "Shape" + index;
+        return "class " + name + " {\n" +
+            "  float x, y;\n" +
+            "  float speed = 1.5;\n" +
+            "  int size;\n" +
+            "\n" +
+            "  " + name + "(float x, float y) {\n" +
+            "    this.x = x;\n" +
+            "    this.y = y;\n" +
+            "    this.size = int(random(10, 40));\n" +
+            "    score += 1;\n" +
+            "  }\n" +
+            "\n" +
+            "  void display() {\n" +
+            "    fill(#FF00FF);\n" +
+            "    rect(x, y, 20, 20);\n" +
+            "    if (mouseX > x && mouseY > y) {\n" +
+            "      ellipse(x + 10, y + 10, size, size);\n" +
+            "    }\n" +
+            "    move(speed, 0, width, height, 1, 2);\n" +
+            "  }\n" +
+            "\n" +
+            "  void move(float dx, float dy, float maxX, float maxY, int a, int b) {\n" +
+            "    x = (x + dx) % maxX;\n" +
+            "    y = (y + dy) % maxY;\n" +
+            "    float scaled = float(a * b) / 2.0;\n" +
+            "    line(0, 0, x, y);\n" +
+            "  }\n" +
+            "}\n" +
+            "\n";
+    }
+
+    private static int countLines(CharSequence code) {
+        var lines = 0;
+        for (int i = 0; i < code.length(); i++) {
+            if (code.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
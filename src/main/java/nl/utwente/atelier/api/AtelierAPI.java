@@ -2,17 +2,27 @@ package nl.utwente.atelier.api;
 
 import com.google.gson.JsonObject;
 import nl.utwente.atelier.exceptions.CryptoException;
+import nl.utwente.atelierpmd.metrics.Histogram;
+import nl.utwente.atelierpmd.metrics.Metrics;
 import nl.utwente.atelierpmd.server.Configuration;
-import org.apache.http.HttpResponse;
+import nl.utwente.atelierpmd.server.Stage;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 
 import java.io.IOException;
+import java.util.Arrays;
 
-/** Helper class to make API requests to Atelier */
+/**
+ * Helper class to make API requests to Atelier. Responses are passed to a handler, after which the response body is
+ * consumed completely, so the connection can be reused for the next request. When the handler throws an
+ * IOException, like a file that turns out to be too large, the response is closed without reading the rest of the
+ * body, and the connection is closed with it.
+ */
 public class AtelierAPI {
     private final Configuration config;
     private final Authentication auth;
@@ -24,33 +34,53 @@ public class AtelierAPI {
         this.client = client;
     }
 
-    private HttpResponse makeAuthenticatedRequest(HttpRequestBase request) throws IOException, CryptoException {
-        request.addHeader("Authorization", "Bearer " + auth.getCurrentToken());
-        var res = client.execute(request);
-        request.releaseConnection();
-        return res;
+    /**
+     * Make a request, recording how long it took in the histogram. The status code of the response is added as the
+     * last label value, or "error" if no response was received.
+     */
+    private <T> T makeAuthenticatedRequest(HttpRequestBase request, ResponseHandler<? extends T> handler,
+                                           Histogram histogram, String... labelValues) throws IOException, CryptoException {
+        var start = System.nanoTime();
+        var labels = Arrays.copyOf(labelValues, labelValues.length + 1);
+        labels[labelValues.length] = "error";
+        try {
+            request.addHeader("Authorization", "Bearer " + auth.getCurrentToken());
+            return client.execute(request, res -> {
+                labels[labelValues.length] = Integer.toString(res.getStatusLine().getStatusCode());
+                return handler.handleResponse(res);
+            });
+        } finally {
+            histogram.observeSince(start, labels);
+        }
     }
 
-    private HttpResponse makeAuthenticatedJsonRequest(String url, JsonObject json) throws IOException, CryptoException {
+    private <T> T makeAuthenticatedJsonRequest(String url, JsonObject json, ResponseHandler<? extends T> handler,
+                                               String target) throws IOException, CryptoException {
         var request = new HttpPost(config.getAtelierHost() + url);
-        request.setEntity(new StringEntity(json.toString()));
-        request.setHeader("Content-Type", "application/json");
-        return makeAuthenticatedRequest(request);
+        request.setEntity(new StringEntity(json.toString(), ContentType.APPLICATION_JSON));
+        return makeAuthenticatedRequest(request, handler, Metrics.COMMENT_POST_SECONDS, target);
     }
 
     /** Get the file body for a given fileID */
-    public HttpResponse getFile(String fileID) throws IOException, CryptoException {
+    public <T> T getFile(String fileID, ResponseHandler<? extends T> handler) throws IOException, CryptoException {
         var fileRequest = new HttpGet(config.getAtelierHost() + "/api/file/" + fileID + "/body");
-        return makeAuthenticatedRequest(fileRequest);
+        return makeAuthenticatedRequest(fileRequest, handler, Metrics.FILE_FETCH_SECONDS);
+    }
+
+    /** Get the file body for a given fileID, aborting the request if the task it belongs to is cancelled */
+    public <T> T getFile(String fileID, ResponseHandler<? extends T> handler, Stage.Cancellation cancellation) throws IOException, CryptoException {
+        var fileRequest = new HttpGet(config.getAtelierHost() + "/api/file/" + fileID + "/body");
+        cancellation.onCancel(fileRequest::abort);
+        return makeAuthenticatedRequest(fileRequest, handler, Metrics.FILE_FETCH_SECONDS);
     }
 
     /** Create a new comment thread on a file */
-    public HttpResponse postComment(String fileID, JsonObject json) throws IOException, CryptoException {
-        return makeAuthenticatedJsonRequest("/api/commentThread/file/" + fileID, json);
+    public <T> T postComment(String fileID, JsonObject json, ResponseHandler<? extends T> handler) throws IOException, CryptoException {
+        return makeAuthenticatedJsonRequest("/api/commentThread/file/" + fileID, json, handler, "file");
     }
 
     /** Create a new comment thread on a submission */
-    public HttpResponse postProjectComment(String submissionID, JsonObject json) throws IOException, CryptoException {
-        return makeAuthenticatedJsonRequest("/api/commentThread/submission/" + submissionID, json);
+    public <T> T postProjectComment(String submissionID, JsonObject json, ResponseHandler<? extends T> handler) throws IOException, CryptoException {
+        return makeAuthenticatedJsonRequest("/api/commentThread/submission/" + submissionID, json, handler, "submission");
     }
 }
@@ -1,32 +1,94 @@
 package nl.utwente.atelier.api;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTCreationException;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 
 import nl.utwente.atelier.exceptions.CryptoException;
+import nl.utwente.atelierpmd.metrics.Metrics;
 import nl.utwente.atelierpmd.server.Configuration;
 
-/** Helper class for dealing with authentication for the Atelier API */
-public class Authentication {
-    private String userID;
-    private String atelierHost;
-    private RSAPublicKey publicKey;
-    private RSAPrivateKey privateKey;
-    private HttpClient client;
+/**
+ * Helper class for dealing with authentication for the Atelier API. The current token is read without locking. A
+ * background thread requests a new token before the current one expires, so requests to Atelier do not wait for it.
+ */
+public class Authentication implements Closeable {
+    /** A token is no longer used when it expires within this time */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(15);
+    /** A new token is requested this long before the current one is no longer used, or halfway if that is sooner */
+    private static final Duration REFRESH_AHEAD = Duration.ofSeconds(60);
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(60);
 
-    private String currentToken = null;
-    private Instant currentTokenExp = null;
+    /** A token with the time it expires, replaced as a whole, so readers always see a matching pair */
+    private static class Token {
+        private final String value;
+        private final Instant expiresAt;
+
+        private Token(String value, Instant expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isUsable() {
+            return expiresAt.isAfter(Instant.now().plus(EXPIRY_MARGIN));
+        }
+    }
+
+    /** Failure of a token request that got a response, which is already counted in the metrics */
+    private static class TokenRequestException extends IOException {
+        private TokenRequestException(String message) {
+            super(message);
+        }
+
+        private TokenRequestException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final String userID;
+    private final String atelierHost;
+    private final RSAPublicKey publicKey;
+    private final RSAPrivateKey privateKey;
+    private final HttpClient client;
+    /** Runs all token requests, one at a time */
+    private final ScheduledExecutorService refresher;
+
+    private volatile Token currentToken = null;
+
+    // Guarded by this. The lock is never held while requesting a token.
+    /** The token request that is running or about to run, or null if there is none */
+    private CompletableFuture<Token> refresh = null;
+    /** The next planned token request, or null if there is none */
+    private ScheduledFuture<?> scheduledRefresh = null;
+    private Duration backoff = MIN_BACKOFF;
+    /** Until when a failed request is not retried on demand, or null if the last request succeeded */
+    private Instant retryAt = null;
+    private String lastFailure = null;
+    private boolean closed = false;
 
     public Authentication(Configuration config, HttpClient client) {
         this.userID = config.getAtelierPluginUserID();
@@ -34,6 +96,11 @@ public class Authentication {
         this.publicKey = (RSAPublicKey) config.getPublicKey();
         this.privateKey = (RSAPrivateKey) config.getPrivateKey();
         this.client = client;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "atelier-pmd-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /** Create a JWT token using our own private key for use in the authentication flow */
@@ -46,35 +113,165 @@ public class Authentication {
         }
     }
 
-    /** 
-     * Get a token that can be used for authentication with API requests. If we don't have a
-     * stored token, or the stored token has (or will soon be) expired, request a new one and
-     * return it.
+    /**
+     * Get a token that can be used for authentication with API requests. The stored token is returned if it does
+     * not expire soon. Otherwise this waits for a new token, unless the last request for one failed recently or
+     * the instance is closed.
      */
-    public synchronized String getCurrentToken() throws CryptoException, IOException {
-        if (currentToken == null || currentTokenExp == null || currentTokenExp.isBefore(Instant.now().plusSeconds(15))) {
-            System.out.println("Requesting new authentication token.");
-            var token = issueToken();
-            var authRequest = new HttpGet(atelierHost + "/api/auth/token");
-            authRequest.addHeader("Authorization", "Bearer " + token);
+    public String getCurrentToken() throws CryptoException, IOException {
+        var token = currentToken;
+        if (token != null && token.isUsable()) {
+            return token.value;
+        }
+
+        CompletableFuture<Token> pending;
+        synchronized (this) {
+            token = currentToken;
+            if (token != null && token.isUsable()) {
+                return token.value;
+            }
+            if (closed) {
+                throw new IOException("No authentication token, authentication is closed");
+            }
+            if (refresh == null && retryAt != null && Instant.now().isBefore(retryAt)) {
+                throw new IOException("No authentication token, the last request failed (" + lastFailure
+                    + "), retrying in " + Duration.between(Instant.now(), retryAt).toSeconds() + " s");
+            }
+            pending = startRefresh();
+        }
+
+        try {
+            return pending.get().value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an authentication token");
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof CryptoException) throw (CryptoException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Start a token request on the refresher thread, or return the one that is already running. Hold the lock. */
+    private CompletableFuture<Token> startRefresh() {
+        if (refresh == null) {
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+            var pending = new CompletableFuture<Token>();
             try {
-                var res = client.execute(authRequest);
-                if (res.getStatusLine().getStatusCode() == 200) {
+                refresher.execute(() -> refresh(pending));
+            } catch (RejectedExecutionException e) {
+                // Closed, the request will never run
+                pending.completeExceptionally(new IOException("No authentication token, authentication is closed"));
+                return pending;
+            }
+            refresh = pending;
+        }
+        return refresh;
+    }
+
+    /** Planned token request, which does nothing when a request was started on demand in the meantime */
+    private synchronized void scheduledRefresh() {
+        scheduledRefresh = null;
+        startRefresh();
+    }
+
+    /** Request a new token, and plan the next request: before the token expires, or after a backoff on failure */
+    private void refresh(CompletableFuture<Token> pending) {
+        Token token = null;
+        Exception failure;
+        try {
+            token = requestToken();
+            failure = null;
+        } catch (CryptoException | IOException | RuntimeException e) {
+            // Every failure must complete the request, or the threads waiting for it would wait forever
+            failure = e;
+        }
+
+        synchronized (this) {
+            refresh = null;
+            Duration delay;
+            if (token != null) {
+                currentToken = token;
+                backoff = MIN_BACKOFF;
+                retryAt = null;
+                lastFailure = null;
+                var usableLifetime = Duration.between(Instant.now(), token.expiresAt).minus(EXPIRY_MARGIN);
+                var ahead = REFRESH_AHEAD.compareTo(usableLifetime.dividedBy(2)) < 0
+                    ? REFRESH_AHEAD
+                    : usableLifetime.dividedBy(2);
+                delay = usableLifetime.minus(ahead);
+            } else {
+                // Full jitter between half and all of the backoff, so several instances do not retry in step
+                var backoffMillis = backoff.toMillis();
+                delay = Duration.ofMillis(ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1));
+                backoff = backoff.multipliedBy(2).compareTo(MAX_BACKOFF) < 0 ? backoff.multipliedBy(2) : MAX_BACKOFF;
+                retryAt = Instant.now().plus(delay);
+                lastFailure = failure.getMessage();
+                System.out.printf("Could not get an authentication token: %s. Retrying in %d ms.%n", lastFailure,
+                    delay.toMillis());
+            }
+            if (!refresher.isShutdown()) {
+                scheduledRefresh = refresher.schedule(this::scheduledRefresh,
+                    Math.max(MIN_BACKOFF.toMillis(), delay.toMillis()), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (token != null) {
+            pending.complete(token);
+        } else {
+            pending.completeExceptionally(failure);
+        }
+    }
+
+    /** Exchange a token signed with our own key for a token for the API */
+    private Token requestToken() throws CryptoException, IOException {
+        System.out.println("Requesting new authentication token.");
+        var authRequest = new HttpGet(atelierHost + "/api/auth/token");
+        authRequest.addHeader("Authorization", "Bearer " + issueToken());
+        try {
+            return client.execute(authRequest, res -> {
+                if (res.getStatusLine().getStatusCode() != 200) {
+                    Metrics.TOKEN_REFRESHES.inc("failure");
+                    throw new TokenRequestException("Request was unsuccesful, got status " + res.getStatusLine().getStatusCode());
+                }
+                try {
                     var resToken = JsonParser.parseReader(new InputStreamReader(res.getEntity().getContent()))
                         .getAsJsonObject()
                         .get("token")
                         .getAsString();
-                    currentToken = resToken;
-                    currentTokenExp = JWT.decode(resToken).getExpiresAt().toInstant();
-                } else {
-                    System.out.println("Request was unsuccesful, got status " + res.getStatusLine().getStatusCode());
+                    var token = new Token(resToken, JWT.decode(resToken).getExpiresAt().toInstant());
+                    Metrics.TOKEN_REFRESHES.inc("success");
+                    return token;
+                } catch (NullPointerException | IllegalStateException | JsonParseException | JWTDecodeException e) {
+                    Metrics.TOKEN_REFRESHES.inc("error");
+                    throw new TokenRequestException("Could not read the token: " + e.getMessage(), e);
                 }
-            } catch (NullPointerException e) {
-                System.out.println("Got null when trying to read token.");
-            } finally {
-                authRequest.releaseConnection();
-            }
+            });
+        } catch (TokenRequestException e) {
+            throw e;
+        } catch (IOException e) {
+            Metrics.TOKEN_REFRESHES.inc("error");
+            throw e;
+        }
+    }
+
+    /** Stop requesting new tokens */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        refresher.shutdownNow();
+        // A request that was waiting to run is dropped, so the threads waiting for it must not wait forever
+        if (refresh != null) {
+            refresh.completeExceptionally(new IOException("No authentication token, authentication is closed"));
+            refresh = null;
         }
-        return currentToken;
     }
-}
\ No newline at end of file
+}
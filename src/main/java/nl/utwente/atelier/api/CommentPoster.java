@@ -0,0 +1,168 @@
+package nl.utwente.atelier.api;
+
+import nl.utwente.atelier.exceptions.CryptoException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posts comments to Atelier on a shared pool of threads. The size of the pool limits the number of requests
+ * that are in flight for the whole application, and every batch of comments (usually one per submission) is
+ * limited further, so a single large submission cannot claim the whole pool. A batch also has a time limit, after
+ * which the comments that are not posted yet are given up.
+ */
+public class CommentPoster {
+    private final ExecutorService executor;
+    private final int perBatchLimit;
+    private final long batchTimeoutNanos;
+
+    /** A single request to Atelier, including the handling of its response */
+    @FunctionalInterface
+    public interface Request {
+        void send() throws IOException, CryptoException;
+    }
+
+    /**
+     * Create a new comment poster
+     * @param globalLimit the maximum number of requests in flight for all batches together
+     * @param perBatchLimit the maximum number of requests in flight for a single batch
+     * @param batchTimeout how long posting all comments of a batch may take
+     */
+    public CommentPoster(int globalLimit, int perBatchLimit, long batchTimeout, TimeUnit unit) {
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(globalLimit, runnable -> {
+            var thread = new Thread(runnable, "atelier-pmd-poster-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.perBatchLimit = perBatchLimit;
+        this.batchTimeoutNanos = unit.toNanos(batchTimeout);
+    }
+
+    /** Start a new batch of comments, for example all comments on a single submission */
+    public Batch startBatch(String description) {
+        return new Batch(description);
+    }
+
+    /** Stop the posting threads, giving requests that are still running some time to finish */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A group of comments that are posted together, with their own limit on the requests in flight */
+    public class Batch {
+        private final String description;
+        private final Semaphore permits = new Semaphore(perBatchLimit);
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final long deadline = System.nanoTime() + batchTimeoutNanos;
+
+        private Batch(String description) {
+            this.description = description;
+        }
+
+        private long remainingNanos() {
+            return Math.max(0, deadline - System.nanoTime());
+        }
+
+        /**
+         * Post a comment in the background. Blocks while the batch already has the maximum number of requests
+         * in flight. A failed request is logged and counted, but does not affect the other requests. When the time
+         * for the batch is up, the comment is not posted and counted as failed.
+         * @return a future that completes once the request is done, whether it succeeded or not
+         */
+        public CompletableFuture<Void> post(Request request) {
+            try {
+                if (!permits.tryAcquire(remainingNanos(), TimeUnit.NANOSECONDS)) {
+                    failed.incrementAndGet();
+                    return CompletableFuture.completedFuture(null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            var future = CompletableFuture.runAsync(() -> {
+                try {
+                    request.send();
+                    succeeded.incrementAndGet();
+                } catch (IOException | CryptoException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    e.printStackTrace();
+                } finally {
+                    permits.release();
+                }
+            }, executor);
+            synchronized (pending) {
+                pending.add(future);
+            }
+            return future;
+        }
+
+        /**
+         * Post comments one after another, in the given order. Returns once all of them are done, so comments
+         * posted afterwards are always created after these.
+         */
+        public void postInOrder(List<Request> requests) {
+            for (var request : requests) {
+                if (!waitFor(post(request))) return;
+            }
+        }
+
+        /** Wait until all comments in this batch have been posted, or the time for the batch is up */
+        public void await() {
+            CompletableFuture<?>[] futures;
+            synchronized (pending) {
+                futures = pending.toArray(new CompletableFuture<?>[0]);
+            }
+            waitFor(CompletableFuture.allOf(futures));
+            System.out.printf("Posted %d comments for %s, %d failed.%n", succeeded.get(), description, failed.get());
+        }
+
+        /**
+         * Wait for requests until the time for the batch is up. Requests that did not start by then are not sent,
+         * requests that are still running are left to the timeouts of the connection.
+         * @return false if the time ran out
+         */
+        private boolean waitFor(CompletableFuture<?> future) {
+            try {
+                future.get(remainingNanos(), TimeUnit.NANOSECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                int cancelled = 0;
+                synchronized (pending) {
+                    for (var request : pending) {
+                        if (request.cancel(false)) cancelled++;
+                    }
+                }
+                System.out.printf("Gave up waiting for %d comments for %s after %d seconds.%n",
+                    cancelled, description, TimeUnit.NANOSECONDS.toSeconds(batchTimeoutNanos));
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                // Failures of single requests are handled when they are posted
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package nl.utwente.atelier.api;
+
+import nl.utwente.atelierpmd.server.Configuration;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of keep-alive connections to Atelier, shared by all requests the application makes. Connections that have
+ * been idle for too long are closed in the background.
+ */
+public class ConnectionPool implements Closeable {
+    private final PoolingHttpClientConnectionManager manager;
+    private final CloseableHttpClient client;
+
+    public ConnectionPool(Configuration config) {
+        manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(config.getHttpMaxConnections());
+        manager.setDefaultMaxPerRoute(config.getHttpMaxConnectionsPerRoute());
+        // Check connections that have not been used for a while before handing them out again,
+        // the server may have closed them in the meantime
+        manager.setValidateAfterInactivity(2000);
+
+        var keepAliveMillis = TimeUnit.SECONDS.toMillis(config.getHttpKeepAliveSeconds());
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            var serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+        };
+
+        var timeoutMillis = (int) TimeUnit.SECONDS.toMillis(config.getHttpConnectTimeoutSeconds());
+        var requestConfig = RequestConfig.custom()
+            .setConnectTimeout(timeoutMillis)
+            .setConnectionRequestTimeout(timeoutMillis)
+            .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(config.getHttpReadTimeoutSeconds()))
+            .build();
+
+        client = HttpClients.custom()
+            .setConnectionManager(manager)
+            .setKeepAliveStrategy(keepAlive)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(config.getHttpIdleTimeoutSeconds(), TimeUnit.SECONDS)
+            .build();
+    }
+
+    /** The client that makes its requests using this pool */
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    /** Statistics for all connections in the pool: leased, available, pending and the maximum */
+    public PoolStats getStatistics() {
+        return manager.getTotalStats();
+    }
+
+    /** Summary of the pool statistics, for logging */
+    public String describe() {
+        var stats = getStatistics();
+        return String.format("connections leased %d, available %d, pending %d, max %d",
+            stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+    }
+
+    /** Close the client and all connections in the pool */
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,123 @@
+package nl.utwente.atelier.api;
+
+import nl.utwente.atelier.exceptions.FileTooLargeException;
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the bodies of files downloaded from Atelier as UTF-8 text. The body is decoded while it is read, through
+ * buffers that are reused by every download on the same thread, so only the decoded text is kept. Downloads stop
+ * as soon as a file, or all files of a submission together, turn out to be larger than the limits.
+ */
+public class FileBodyReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Buffers and decoder for the downloads on a single thread */
+    private static class Buffers {
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    /** The number of bytes that may still be downloaded for a single submission, shared by all of its files */
+    public static class Budget {
+        private final long limit;
+        private final AtomicLong remaining;
+
+        public Budget(long limit) {
+            this.limit = limit;
+            this.remaining = new AtomicLong(limit);
+        }
+
+        private boolean take(long bytes) {
+            return remaining.addAndGet(-bytes) >= 0;
+        }
+    }
+
+    private final long maxFileBytes;
+
+    /** @param maxFileBytes the maximum size of a single file */
+    public FileBodyReader(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Read the body of a file
+     * @param fileName name of the file, for the error message if it is too large
+     * @param entity the body of the response
+     * @param budget the bytes that may still be downloaded for the submission the file belongs to
+     * @throws FileTooLargeException as soon as it is clear the file or the submission is too large
+     */
+    public String read(String fileName, HttpEntity entity, Budget budget) throws IOException {
+        var length = entity.getContentLength();
+        if (length > maxFileBytes)
+            throw new FileTooLargeException(fileName, maxFileBytes, false);
+        if (length > budget.remaining.get())
+            throw new FileTooLargeException(fileName, budget.limit, true);
+
+        var buffers = FileBodyReader.buffers.get();
+        var bytes = buffers.bytes;
+        var chars = buffers.chars;
+        var decoder = buffers.decoder;
+        bytes.clear();
+        decoder.reset();
+        // UTF-8 never has fewer bytes than characters, so the length is enough room for all characters
+        var text = new StringBuilder(length >= 0 ? (int) length : BUFFER_SIZE);
+        long total = 0;
+
+        try (var input = entity.getContent()) {
+            var eof = false;
+            while (!eof) {
+                var read = input.read(bytes.array(), bytes.position(), bytes.remaining());
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    total += read;
+                    if (total > maxFileBytes)
+                        throw new FileTooLargeException(fileName, maxFileBytes, false);
+                    if (!budget.take(read))
+                        throw new FileTooLargeException(fileName, budget.limit, true);
+                    bytes.position(bytes.position() + read);
+                }
+
+                // Decode what was read, keeping an incomplete character at the end for the next round
+                bytes.flip();
+                decode(decoder, bytes, chars, text, eof);
+                bytes.compact();
+            }
+            chars.clear();
+            while (decoder.flush(chars).isOverflow()) {
+                drain(chars, text);
+            }
+            drain(chars, text);
+        }
+        return text.toString();
+    }
+
+    private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars, StringBuilder text,
+                               boolean endOfInput) {
+        while (true) {
+            chars.clear();
+            var result = decoder.decode(bytes, chars, endOfInput);
+            drain(chars, text);
+            if (!result.isOverflow()) break;
+        }
+    }
+
+    private static void drain(CharBuffer chars, StringBuilder text) {
+        chars.flip();
+        text.append(chars);
+        chars.clear();
+    }
+}
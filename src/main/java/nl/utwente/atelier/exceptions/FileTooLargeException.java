@@ -0,0 +1,36 @@
+package nl.utwente.atelier.exceptions;
+
+import java.io.IOException;
+
+/** A file, or all files of a submission together, are larger than what we are willing to download */
+public class FileTooLargeException extends IOException {
+    private final String fileName;
+    private final long limit;
+    private final boolean submissionLimit;
+
+    /**
+     * @param fileName the file that was being downloaded when the limit was exceeded
+     * @param limit the limit in bytes
+     * @param submissionLimit whether the limit is for all files of the submission together, or for a single file
+     */
+    public FileTooLargeException(String fileName, long limit, boolean submissionLimit) {
+        super(submissionLimit
+            ? String.format("The files of the submission are larger than %d bytes together, at file %s.", limit, fileName)
+            : String.format("File %s is larger than %d bytes.", fileName, limit));
+        this.fileName = fileName;
+        this.limit = limit;
+        this.submissionLimit = submissionLimit;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public boolean isSubmissionLimit() {
+        return submissionLimit;
+    }
+}
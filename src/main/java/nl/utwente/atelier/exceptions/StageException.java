@@ -0,0 +1,12 @@
+package nl.utwente.atelier.exceptions;
+
+/** A stage of handling a webhook job failed, or did not finish in time */
+public class StageException extends Exception {
+    public StageException(String message) {
+        super(message);
+    }
+
+    public StageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -5,15 +5,15 @@ import com.google.gson.JsonParser;
 import net.sourceforge.pmd.RuleViolation;
 import net.sourceforge.pmd.renderers.AbstractIncrementingRenderer;
 import nl.utwente.atelier.api.AtelierAPI;
-import nl.utwente.atelier.exceptions.CryptoException;
+import nl.utwente.atelier.api.CommentPoster;
 import nl.utwente.processing.LineInFile;
 import nl.utwente.processing.ProcessingProject;
+import org.apache.http.client.ResponseHandler;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Writer;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /** PMD violation and error renderer that submits comments to Atelier */
 public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
@@ -21,18 +21,65 @@ public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
     private final String submissionID;
     private final ProcessingProject project;
     private final AtelierAPI api;
+    private final CommentPoster.Batch comments;
+    /** Keys of the violations that were posted on this submission before, or null if it was not analysed before */
+    private final Set<String> postedViolations;
+    /** Keys of the violations found in this run */
+    private final Set<String> violationKeys = new HashSet<>();
 
     /**
      * Create a new renderer for submitting comments to Atelier
      * @param submissionID the ID for the submission that is getting checked
      * @param project the project that PMD is running through
      * @param api helper to create Atelier API requests
+     * @param poster the stage that posts the comments in the background
      */
-    public AtelierPMDRenderer(String submissionID, ProcessingProject project, AtelierAPI api) {
+    public AtelierPMDRenderer(String submissionID, ProcessingProject project, AtelierAPI api, CommentPoster poster) {
+        this(submissionID, project, api, poster, null);
+    }
+
+    /**
+     * Create a new renderer for submitting comments to Atelier
+     * @param submissionID the ID for the submission that is getting checked
+     * @param project the project that PMD is running through
+     * @param api helper to create Atelier API requests
+     * @param poster the stage that posts the comments in the background
+     * @param postedViolations keys of the violations that were posted on this submission before, as returned by
+     *                         {@link #getViolationKeys()} after an earlier run, or null if there was no earlier run.
+     *                         These violations and the summary comments are not posted again.
+     */
+    public AtelierPMDRenderer(String submissionID, ProcessingProject project, AtelierAPI api, CommentPoster poster,
+                              Set<String> postedViolations) {
         super("Atelier-" + submissionID, "Uploads comments directly to Atelier, on submission " + submissionID);
         this.submissionID = submissionID;
         this.project = project;
         this.api = api;
+        this.comments = poster.startBatch("submission " + submissionID);
+        this.postedViolations = postedViolations;
+    }
+
+    /** Keys that identify the violations found in this run, also if the lines around them move */
+    public Set<String> getViolationKeys() {
+        return Collections.unmodifiableSet(violationKeys);
+    }
+
+    /**
+     * Get a key for a violation, made of the file, the rule, the description and the code on the lines of the
+     * violation, but not the line numbers. A number is added to tell identical violations apart.
+     */
+    private String violationKey(RuleViolation violation, LineInFile begin, LineInFile end) {
+        var key = new StringBuilder();
+        key.append(begin.getFile().getId()).append('\0')
+            .append(violation.getRule().getName()).append('\0')
+            .append(violation.getDescription()).append('\0');
+        for (int line = begin.getLine(); line <= end.getLine(); line++) {
+            key.append(begin.getFile().getLine(line).trim()).append('\n');
+        }
+        var occurrence = 1;
+        while (violationKeys.contains(key + "#" + occurrence)) {
+            occurrence++;
+        }
+        return key + "#" + occurrence;
     }
 
     // Renderers are required to provide a writer, but we don't want to write
@@ -75,8 +122,8 @@ public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
 
             LineInFile begin, end;
             try {
-                begin = project.mapJavaProjectLineNumber(violation.getBeginLine());
-                end = project.mapJavaProjectLineNumber(violation.getEndLine());
+                begin = project.mapJavaProjectPosition(violation.getBeginLine(), violation.getBeginColumn());
+                end = project.mapJavaProjectPosition(violation.getEndLine(), violation.getEndColumn());
                 if (!begin.getFile().getId().equals(end.getFile().getId())) {
                     System.out.println("Dismissing violation: Line numbers are not in the same source file");
                     continue;
@@ -86,6 +133,9 @@ public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
                 continue;
             }
 
+            var key = violationKey(violation, begin, end);
+            violationKeys.add(key);
+
             String sRuleName = mAddSpacesToString(violation.getRule().getName()).trim();
             if (mRuleViolationStatistics.containsKey(sRuleName)) {
                 mRuleViolationStatistics.replace(sRuleName, mRuleViolationStatistics.get(sRuleName) + 1);
@@ -95,12 +145,12 @@ public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
             }
 
             var lineStart = begin.getLine();
-            var charStart = violation.getBeginColumn();
+            var charStart = begin.getColumn();
             var lineEnd = end.getLine();
-            var charEnd = violation.getEndColumn();
+            var charEnd = end.getColumn();
 
             if (lineStart == lineEnd && charStart == charEnd) {
-                var line = begin.getFile().getContent().lines().collect(Collectors.toList()).get(lineStart - 1);
+                var line = begin.getFile().getLine(lineStart);
                 charStart = line.indexOf(line.trim());
                 charEnd = line.length();
             } else {
@@ -131,39 +181,30 @@ public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
             // Set the text of the comment
             json.addProperty("comment", violation.getDescription());
 
-            liRuleViolations.add(json);
+            if (postedViolations != null && postedViolations.contains(key)) {
+                System.out.println("Not posting violation for rule " + violation.getRule().getName() + " again");
+            } else {
+                liRuleViolations.add(json);
+            }
         }
 
-        for (JsonObject oSummaryJson :
-                mGetSummaryMessage(mRuleViolationStatistics)) {
-            try {
-                var res = api.postProjectComment(submissionID, oSummaryJson);
-                if (res.getStatusLine().getStatusCode() == 200) {
-                    var resJson = JsonParser.parseReader(new InputStreamReader(res.getEntity().getContent()));
-                    var threadID = resJson.getAsJsonObject().get("ID").getAsString();
-                    System.out.println("Made ZITA Summary comment " + threadID + " for submission " + submissionID);
-                } else {
-                    System.out.println("Request to make comment failed. Got status " + res.getStatusLine().getStatusCode());
-                }
-            } catch (CryptoException | NullPointerException e) {
-                e.printStackTrace();
+        // The summary has to be the first comment on the submission, the other comments
+        // can be created in any order. When the submission was analysed before, the summary is already there, and
+        // its counts would include the violations that were posted before, so only the new violations are posted.
+        if (postedViolations == null) {
+            List<CommentPoster.Request> liSummaryRequests = new ArrayList<>();
+            for (JsonObject oSummaryJson :
+                    mGetSummaryMessage(mRuleViolationStatistics)) {
+                liSummaryRequests.add(() -> api.postProjectComment(submissionID, oSummaryJson,
+                    logCreatedThread("ZITA Summary comment", "submission " + submissionID)));
             }
+            comments.postInOrder(liSummaryRequests);
         }
 
         for (JsonObject json :
              liRuleViolations) {
-            try {
-                var res = api.postComment(json.get("file").getAsString(), json);
-                if (res.getStatusLine().getStatusCode() == 200) {
-                    var resJson = JsonParser.parseReader(new InputStreamReader(res.getEntity().getContent()));
-                    var threadID = resJson.getAsJsonObject().get("ID").getAsString();
-                    System.out.println("Made comment " + threadID + " for rule " + json.get("rule").getAsString());
-                } else {
-                    System.out.println("Request to make comment failed. Got status " + res.getStatusLine().getStatusCode());
-                }
-            } catch (CryptoException | NullPointerException e) {
-                e.printStackTrace();
-            }
+            comments.post(() -> api.postComment(json.get("file").getAsString(), json,
+                logCreatedThread("comment", "rule " + json.get("rule").getAsString())));
         }
     }
 
@@ -179,25 +220,30 @@ public class AtelierPMDRenderer extends AbstractIncrementingRenderer {
             json.addProperty("comment", err.getMsg());
             json.addProperty("automated", true);
 
-            try {
-                var res = api.postProjectComment(submissionID, json);
-                if (res.getStatusLine().getStatusCode() == 200) {
-                    var resJson = JsonParser.parseReader(new InputStreamReader(res.getEntity().getContent()));
-                    var threadID = resJson.getAsJsonObject().get("ID").getAsString();
-                    System.out.println("Made comment " + threadID + " for an error");
-                } else {
-                    System.out.println("Request to make comment failed. Got status " + res.getStatusLine().getStatusCode());
-                }
-            } catch (CryptoException | NullPointerException e) {
-                e.printStackTrace();
-            }
+            comments.post(() -> api.postProjectComment(submissionID, json,
+                logCreatedThread("comment", "an error")));
         }
 
+        comments.await();
         System.out.println("Ending renderer for " + submissionID);
 
         this.getWriter().close();
     }
     
+    /** Response handler that logs the ID of the comment thread Atelier created */
+    private ResponseHandler<Void> logCreatedThread(String kind, String target) {
+        return res -> {
+            if (res.getStatusLine().getStatusCode() == 200) {
+                var resJson = JsonParser.parseReader(new InputStreamReader(res.getEntity().getContent()));
+                var threadID = resJson.getAsJsonObject().get("ID").getAsString();
+                System.out.println("Made " + kind + " " + threadID + " for " + target);
+            } else {
+                System.out.println("Request to make comment failed. Got status " + res.getStatusLine().getStatusCode());
+            }
+            return null;
+        };
+    }
+
     private List<JsonObject> mGetSummaryMessage(Map<String, Integer> mRuleViolationStatistics) {
         List<JsonObject> liResult = new ArrayList<JsonObject>();
 
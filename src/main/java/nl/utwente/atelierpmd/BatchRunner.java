@@ -0,0 +1,183 @@
+package nl.utwente.atelierpmd;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.sourceforge.pmd.Report;
+import net.sourceforge.pmd.RuleViolation;
+import nl.utwente.processing.ProcessingProject;
+import nl.utwente.processing.pmd.PMDRunner;
+import nl.utwente.processing.pmd.ProcessingClassLoader;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Analyses every project in a directory of projects, like all submissions of a course, on several threads. The
+ * results are written as soon as a project is done, as JSON Lines or CSV.
+ */
+public class BatchRunner {
+
+    /** The formats the results can be written in */
+    public enum Format {
+        /** A JSON object per line for every project, with all violations */
+        JSONL,
+        /** A line per project with the number of violations and errors */
+        CSV
+    }
+
+    private static final String CSV_HEADER = "project,status,files,millis,violations,errors,message";
+
+    private final Format format;
+    private final PrintWriter output;
+    private final int threads;
+    /** The class loader for type resolution, shared by the runners of all threads */
+    private final ProcessingClassLoader classLoader = new ProcessingClassLoader();
+    /** Every worker thread creates its runner once, so the rulesets are loaded once per thread */
+    private final ThreadLocal<PMDRunner> runners = ThreadLocal.withInitial(
+        () -> new PMDRunner(PMDRunner.DEFAULT_RULESETS, null, classLoader));
+
+    private final AtomicInteger analysed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BatchRunner(Format format, PrintWriter output, int threads) {
+        this.format = format;
+        this.output = output;
+        this.threads = threads;
+    }
+
+    /**
+     * Analyse every subdirectory of a directory as a project, and write the result of each project to the output.
+     * A project that cannot be read or analysed gets a failed result, the other projects are still analysed.
+     */
+    public void run(Path corpus) throws IOException, InterruptedException {
+        List<Path> projects;
+        try (var entries = Files.list(corpus)) {
+            projects = entries.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        }
+
+        var start = System.nanoTime();
+        if (format == Format.CSV) {
+            write(CSV_HEADER);
+        }
+        var pool = new ForkJoinPool(threads);
+        try {
+            for (var project : projects) {
+                pool.execute(() -> write(analyse(project)));
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            classLoader.close();
+        }
+        System.err.printf("Analysed %d projects in %.1f s on %d threads, %d failed%n",
+            analysed.get(), (System.nanoTime() - start) / 1e9, threads, failed.get());
+    }
+
+    private String analyse(Path path) {
+        var start = System.nanoTime();
+        var name = path.getFileName().toString();
+        int files = 0;
+        try {
+            var projectFiles = LocalRunner.readFiles(path);
+            files = projectFiles.size();
+            var project = new ProcessingProject(projectFiles);
+            var report = runners.get().Analyse(project, null);
+            analysed.incrementAndGet();
+            return format(name, project, files, report, millisSince(start));
+        } catch (Exception | StackOverflowError e) {
+            analysed.incrementAndGet();
+            failed.incrementAndGet();
+            return formatFailure(name, files, millisSince(start), e);
+        }
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private String format(String name, ProcessingProject project, int files, Report report, long millis) {
+        var errors = report.getProcessingErrors().stream()
+            .map(Report.ProcessingError::getMsg)
+            .collect(Collectors.toList());
+        var status = errors.isEmpty() ? "ok" : "error";
+        if (format == Format.CSV) {
+            return csv(name, status, files, millis, report.getViolations().size(), errors.size(),
+                String.join("; ", errors));
+        }
+
+        var json = new JsonObject();
+        json.addProperty("project", name);
+        json.addProperty("status", status);
+        json.addProperty("files", files);
+        json.addProperty("millis", millis);
+        var violations = new JsonArray();
+        for (var violation : report.getViolations()) {
+            violations.add(toJson(project, violation));
+        }
+        json.add("violations", violations);
+        var errorArray = new JsonArray();
+        errors.forEach(errorArray::add);
+        json.add("errors", errorArray);
+        return json.toString();
+    }
+
+    private static JsonObject toJson(ProcessingProject project, RuleViolation violation) {
+        var json = new JsonObject();
+        json.addProperty("rule", violation.getRule().getName());
+        try {
+            var begin = project.mapJavaProjectPosition(violation.getBeginLine(), violation.getBeginColumn());
+            json.addProperty("file", begin.getFile().getName());
+            json.addProperty("line", begin.getLine());
+            json.addProperty("column", begin.getColumn());
+        } catch (IndexOutOfBoundsException ex) {
+            // The violation is in the code added around the sketch, it has no position in the files
+        }
+        json.addProperty("message", violation.getDescription());
+        return json;
+    }
+
+    private String formatFailure(String name, int files, long millis, Throwable e) {
+        var message = e.getClass().getSimpleName() + ": " + e.getMessage();
+        if (format == Format.CSV) {
+            return csv(name, "failed", files, millis, 0, 1, message);
+        }
+        var json = new JsonObject();
+        json.addProperty("project", name);
+        json.addProperty("status", "failed");
+        json.addProperty("files", files);
+        json.addProperty("millis", millis);
+        json.add("violations", new JsonArray());
+        var errors = new JsonArray();
+        errors.add(message);
+        json.add("errors", errors);
+        return json.toString();
+    }
+
+    private static String csv(String name, String status, int files, long millis, int violations, int errors,
+                              String message) {
+        return String.join(",", csvField(name), status, Integer.toString(files), Long.toString(millis),
+            Integer.toString(violations), Integer.toString(errors), csvField(message));
+    }
+
+    /** Quote a CSV field if it contains a separator, quote or line break */
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private void write(String line) {
+        synchronized (output) {
+            output.println(line);
+            output.flush();
+        }
+    }
+}
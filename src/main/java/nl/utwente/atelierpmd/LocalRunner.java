@@ -5,11 +5,14 @@ import net.sourceforge.pmd.renderers.AbstractIncrementingRenderer;
 import nl.utwente.processing.LineInFile;
 import nl.utwente.processing.ProcessingFile;
 import nl.utwente.processing.ProcessingProject;
+import nl.utwente.processing.pmd.AnalysisProfile;
 import nl.utwente.processing.pmd.PMDException;
 import nl.utwente.processing.pmd.PMDRunner;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -53,8 +56,8 @@ public class LocalRunner {
 
                 LineInFile begin, end;
                 try {
-                    begin = project.mapJavaProjectLineNumber(violation.getBeginLine());
-                    end = project.mapJavaProjectLineNumber(violation.getEndLine());
+                    begin = project.mapJavaProjectPosition(violation.getBeginLine(), violation.getBeginColumn());
+                    end = project.mapJavaProjectPosition(violation.getEndLine(), violation.getEndColumn());
                     if (!begin.getFile().getId().equals(end.getFile().getId())) {
                         System.out.println("! Dismissing violation of " + violation.getRule().getName() + ": Line numbers are not in the same source file\n");
                         continue;
@@ -73,12 +76,12 @@ public class LocalRunner {
                 }
 
                 var lineStart = begin.getLine();
-                var charStart = violation.getBeginColumn();
+                var charStart = begin.getColumn();
                 var lineEnd = end.getLine();
-                var charEnd = violation.getEndColumn();
+                var charEnd = end.getColumn();
 
                 if (lineStart == lineEnd && charStart == charEnd) {
-                    var line = begin.getFile().getContent().lines().collect(Collectors.toList()).get(lineStart - 1);
+                    var line = begin.getFile().getLine(lineStart);
                     charStart = line.indexOf(line.trim());
                     charEnd = line.length();
                 } else {
@@ -90,9 +93,8 @@ public class LocalRunner {
                 sbViolationMessage.append("  in ").append(begin.getFile().getName()).append(" line ").append(lineStart).append(":").append(charStart).append(" - ").append(lineEnd).append(":").append(charEnd).append("\n");
                 var lineNumbers = IntStream.range(lineStart, lineEnd + 1).boxed().collect(Collectors.toList());
                 var lineNumberLength = lineNumbers.stream().map(n -> n.toString().length()).max(Integer::compareTo).get();
-                var lines = begin.getFile().getContent().lines().skip(lineStart - 1).limit(lineEnd - lineStart + 1).collect(Collectors.toList());
-                for (int i = 0; i < lines.size(); i++) {
-                    sbViolationMessage.append("  \033[0;37m").append(padLeft(lineNumbers.get(i).toString(), lineNumberLength)).append("\033[0m ").append(lines.get(i)).append("\n");
+                for (int i = 0; i < lineNumbers.size(); i++) {
+                    sbViolationMessage.append("  \033[0;37m").append(padLeft(lineNumbers.get(i).toString(), lineNumberLength)).append("\033[0m ").append(begin.getFile().getLine(lineNumbers.get(i))).append("\n");
                 }
                 sbViolationMessage.append("\n");
                 liViolations.addLast(sbViolationMessage.toString());
@@ -134,22 +136,86 @@ public class LocalRunner {
         }
     }
 
-    public static void main(String[] args) throws IOException, PMDException {
-        if (args.length < 1) {
-            System.out.println("Usage: <project path>");
+    /** Writer to the standard output, which stays open when the renderer closes its writer */
+    static PrintWriter standardOutput() {
+        return new PrintWriter(new OutputStreamWriter(System.out) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+    }
+
+    /** The Processing files in a project directory and the directories in it */
+    static List<ProcessingFile> readFiles(Path path) throws IOException {
+        try (var files = Files.find(path, 6, (p, attr) -> attr.isRegularFile() && p.getFileName().toString().endsWith(".pde"))) {
+            return files
+                .map(p -> new ProcessingFile(p.getFileName().toString(), p.getFileName().toString(), readString(p)))
+                .collect(Collectors.toList());
+        }
+    }
+
+    public static void main(String[] args) throws IOException, PMDException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            batch(Arrays.asList(args).subList(1, args.length));
             return;
         }
 
-        var path = Path.of(args[0]);
-        var project = new ProcessingProject(
-            Files.find(path, 6, (p, attr) -> attr.isRegularFile() && p.getFileName().toString().endsWith(".pde"))
-                .map(p -> new ProcessingFile(p.getFileName().toString(), p.getFileName().toString(), readString(p)))
-                .collect(Collectors.toList())
-        );
+        var profiling = args.length > 0 && args[0].equals("--profile");
+        var paths = Arrays.asList(args).subList(profiling ? 1 : 0, args.length);
+        if (paths.isEmpty()) {
+            System.out.println("Usage: [--profile] <project path>...");
+            System.out.println("       --batch [--format jsonl|csv] [--threads <count>] [--output <file>] <corpus path>");
+            return;
+        }
+
+        var corpusProfile = new AnalysisProfile();
+        try (var runner = new PMDRunner()) {
+            for (var projectPath : paths) {
+                var path = Path.of(projectPath);
+                var project = new ProcessingProject(readFiles(path));
+
+                var renderer = new AtelierStyleTextRenderer(project);
+                renderer.setWriter(standardOutput());
+                var profile = profiling ? new AnalysisProfile() : null;
+                runner.Run(project, renderer, profile);
+                if (profile != null) {
+                    profile.print(System.out, "Profile of " + path);
+                    corpusProfile.add(profile);
+                }
+            }
+        }
+        if (profiling && paths.size() > 1) {
+            corpusProfile.print(System.out, "Profile of all projects");
+        }
+    }
 
-        var runner = new PMDRunner();
-        var renderer = new AtelierStyleTextRenderer(project);
-        renderer.setWriter(new PrintWriter(System.out));
-        runner.Run(project, renderer);
+    /** Analyse every project in a corpus directory with a {@link BatchRunner} */
+    private static void batch(List<String> args) throws IOException, InterruptedException {
+        var format = BatchRunner.Format.JSONL;
+        var threads = Runtime.getRuntime().availableProcessors();
+        String output = null;
+        String corpus = null;
+        for (int i = 0; i < args.size(); i++) {
+            var arg = args.get(i);
+            if (arg.equals("--format") && i + 1 < args.size()) {
+                format = BatchRunner.Format.valueOf(args.get(++i).toUpperCase(Locale.ROOT));
+            } else if (arg.equals("--threads") && i + 1 < args.size()) {
+                threads = Integer.parseInt(args.get(++i));
+            } else if (arg.equals("--output") && i + 1 < args.size()) {
+                output = args.get(++i);
+            } else {
+                corpus = arg;
+            }
+        }
+        if (corpus == null) {
+            System.out.println("Usage: --batch [--format jsonl|csv] [--threads <count>] [--output <file>] <corpus path>");
+            return;
+        }
+
+        try (var writer = output == null ? standardOutput()
+                : new PrintWriter(Files.newBufferedWriter(Path.of(output), StandardCharsets.UTF_8))) {
+            new BatchRunner(format, writer, threads).run(Path.of(corpus));
+        }
     }
 }
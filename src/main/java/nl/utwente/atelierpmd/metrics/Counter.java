@@ -0,0 +1,49 @@
+package nl.utwente.atelierpmd.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/** A value that only goes up, like the number of handled requests, counted separately for every set of labels */
+public class Counter extends MetricsRegistry.Metric {
+    private final Map<List<String>, DoubleAdder> values = new ConcurrentHashMap<>();
+
+    Counter(String name, String help, String[] labelNames) {
+        super(name, help, labelNames);
+    }
+
+    @Override
+    String type() {
+        return "counter";
+    }
+
+    /** Increment the counter with the given label values by one */
+    public void inc(String... labelValues) {
+        inc(1, labelValues);
+    }
+
+    /** Increment the counter with the given label values */
+    public void inc(double amount, String... labelValues) {
+        if (labelValues.length != labelNames.length)
+            throw new IllegalArgumentException("Expected " + labelNames.length + " label values for " + name);
+        values.computeIfAbsent(List.of(labelValues), key -> new DoubleAdder()).add(amount);
+    }
+
+    /** The current value of the counter with the given label values */
+    public double get(String... labelValues) {
+        var value = values.get(Arrays.asList(labelValues));
+        return value == null ? 0 : value.sum();
+    }
+
+    @Override
+    void writeSamples(Writer writer) throws IOException {
+        for (var entry : values.entrySet()) {
+            var labels = MetricsRegistry.formatLabels(labelNames, entry.getKey().toArray(new String[0]), null, null);
+            writer.write(name + labels + " " + MetricsRegistry.format(entry.getValue().sum()) + "\n");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package nl.utwente.atelierpmd.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Distribution of observed values, like request durations, in fixed buckets for every set of labels */
+public class Histogram extends MetricsRegistry.Metric {
+    /** Buckets for durations in seconds, from 5 milliseconds to a minute */
+    public static final double[] DURATION_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private final double[] buckets;
+    private final Map<List<String>, Values> values = new ConcurrentHashMap<>();
+
+    /** The observations for a single set of labels */
+    private class Values {
+        private final LongAdder[] bucketCounts = new LongAdder[buckets.length];
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Values() {
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+
+        void observe(double value) {
+            // Only the first bucket the value fits in is counted, the buckets are made cumulative when written
+            for (int i = 0; i < buckets.length; i++) {
+                if (value <= buckets[i]) {
+                    bucketCounts[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(value);
+        }
+    }
+
+    Histogram(String name, String help, double[] buckets, String[] labelNames) {
+        super(name, help, labelNames);
+        this.buckets = buckets.clone();
+    }
+
+    @Override
+    String type() {
+        return "histogram";
+    }
+
+    /** Record an observed value for the given label values */
+    public void observe(double value, String... labelValues) {
+        if (labelValues.length != labelNames.length)
+            throw new IllegalArgumentException("Expected " + labelNames.length + " label values for " + name);
+        values.computeIfAbsent(List.of(labelValues), key -> new Values()).observe(value);
+    }
+
+    /** Record a duration, measured with {@link System#nanoTime()} from the given start, in seconds */
+    public void observeSince(long startNanos, String... labelValues) {
+        observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1), labelValues);
+    }
+
+    @Override
+    void writeSamples(Writer writer) throws IOException {
+        for (var entry : values.entrySet()) {
+            var labelValues = entry.getKey().toArray(new String[0]);
+            var observations = entry.getValue();
+            // Read the count first, so the buckets never add up to less than the count that is reported
+            var count = observations.count.sum();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += observations.bucketCounts[i].sum();
+                var labels = MetricsRegistry.formatLabels(labelNames, labelValues, "le", MetricsRegistry.format(buckets[i]));
+                writer.write(name + "_bucket" + labels + " " + cumulative + "\n");
+            }
+            var labels = MetricsRegistry.formatLabels(labelNames, labelValues, "le", "+Inf");
+            writer.write(name + "_bucket" + labels + " " + Math.max(count, cumulative) + "\n");
+            labels = MetricsRegistry.formatLabels(labelNames, labelValues, null, null);
+            writer.write(name + "_sum" + labels + " " + MetricsRegistry.format(observations.sum.sum()) + "\n");
+            writer.write(name + "_count" + labels + " " + Math.max(count, cumulative) + "\n");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package nl.utwente.atelierpmd.metrics;
+
+/** The metrics of the application, registered in the {@link MetricsRegistry#DEFAULT default registry} */
+public class Metrics {
+    private static final MetricsRegistry registry = MetricsRegistry.DEFAULT;
+
+    /**
+     * Webhook requests by event type and what happened to them: handled, ignored, queued, duplicate, refused,
+     * invalid or failed
+     */
+    public static final Counter WEBHOOKS = registry.counter("atelier_pmd_webhooks_total",
+        "Webhook requests received, by event and outcome", "event", "outcome");
+
+    /** Time taken to download a file from Atelier, by response status */
+    public static final Histogram FILE_FETCH_SECONDS = registry.histogram("atelier_pmd_file_fetch_seconds",
+        "Time taken to download a file from Atelier, by HTTP status", Histogram.DURATION_BUCKETS, "status");
+
+    /** Time spent in each phase of the PMD analysis: parse, resolution (symbol table and types) and rules */
+    public static final Histogram ANALYSIS_PHASE_SECONDS = registry.histogram("atelier_pmd_analysis_phase_seconds",
+        "Time spent in each phase of the PMD analysis of a project", Histogram.DURATION_BUCKETS, "phase");
+
+    /** Lookups in the analysis cache, by result: hit or miss */
+    public static final Counter ANALYSIS_CACHE_LOOKUPS = registry.counter("atelier_pmd_analysis_cache_lookups_total",
+        "Lookups in the cache of analysis results, by result", "result");
+
+    /** Lookups of webhook deliveries in the delivery cache, by result: hit (a duplicate) or miss */
+    public static final Counter DELIVERY_CACHE_LOOKUPS = registry.counter("atelier_pmd_delivery_cache_lookups_total",
+        "Lookups of webhook deliveries in the cache of recent deliveries, by result", "result");
+
+    /** Violations found, by rule */
+    public static final Counter VIOLATIONS = registry.counter("atelier_pmd_violations_total",
+        "Violations found in analysed projects, by rule", "rule");
+
+    /** Time taken to post a comment to Atelier, by target (file or submission) and response status */
+    public static final Histogram COMMENT_POST_SECONDS = registry.histogram("atelier_pmd_comment_post_seconds",
+        "Time taken to post a comment to Atelier, by target and HTTP status", Histogram.DURATION_BUCKETS,
+        "target", "status");
+
+    /** Requests for a new authentication token, by outcome: success, failure or error */
+    public static final Counter TOKEN_REFRESHES = registry.counter("atelier_pmd_token_refreshes_total",
+        "Requests for a new Atelier authentication token, by outcome", "outcome");
+}
@@ -0,0 +1,112 @@
+package nl.utwente.atelierpmd.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the metrics of the application, which can be written out in the Prometheus text format. Metrics are
+ * registered once, usually in {@link Metrics}, and updated from anywhere in the application.
+ */
+public class MetricsRegistry {
+    /** The registry that is exposed by the metrics servlet */
+    public static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /** Registered metrics by name, sorted so the output is stable */
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /** A metric that can write its current values in the Prometheus text format */
+    abstract static class Metric {
+        final String name;
+        final String help;
+        final String[] labelNames;
+
+        Metric(String name, String help, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.labelNames = labelNames;
+        }
+
+        abstract String type();
+
+        abstract void writeSamples(Writer writer) throws IOException;
+
+        void write(Writer writer) throws IOException {
+            writer.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+            writer.write("# TYPE " + name + " " + type() + "\n");
+            writeSamples(writer);
+        }
+    }
+
+    /** Create and register a counter */
+    public Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, labelNames));
+    }
+
+    /** Create and register a histogram with the given bucket upper bounds, in ascending order */
+    public Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+        return register(new Histogram(name, help, buckets, labelNames));
+    }
+
+    /**
+     * Register a gauge that reads its value when the metrics are collected. Registering a gauge with the same name
+     * again replaces the earlier gauge, so a restarted component can register its gauges again.
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        metrics.put(name, new Metric(name, help, new String[0]) {
+            @Override
+            String type() {
+                return "gauge";
+            }
+
+            @Override
+            void writeSamples(Writer writer) throws IOException {
+                writer.write(name + " " + format(value.getAsDouble()) + "\n");
+            }
+        });
+    }
+
+    private <T extends Metric> T register(T metric) {
+        if (metrics.putIfAbsent(metric.name, metric) != null)
+            throw new IllegalArgumentException("A metric named " + metric.name + " is already registered");
+        return metric;
+    }
+
+    /** Write all metrics in the Prometheus text format */
+    public void write(Writer writer) throws IOException {
+        for (var metric : metrics.values()) {
+            metric.write(writer);
+        }
+        writer.flush();
+    }
+
+    /** Format the labels of a sample, with an optional extra label, like {@code {rule="GodClassRule",le="0.5"}} */
+    static String formatLabels(String[] names, String[] values, String extraName, String extraValue) {
+        if (names.length == 0 && extraName == null)
+            return "";
+        var labels = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) labels.append(',');
+            labels.append(names[i]).append("=\"").append(escape(values[i])).append('"');
+        }
+        if (extraName != null) {
+            if (names.length > 0) labels.append(',');
+            labels.append(extraName).append("=\"").append(escape(extraValue)).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String format(double value) {
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+}
@@ -27,6 +27,35 @@ public class Configuration {
     private final String webhookSecret;
     private final PublicKey publicKey;
     private final PrivateKey privateKey;
+    private final boolean asyncIntake;
+    private final int workerThreads;
+    private final int queueCapacity;
+    private final int commentThreads;
+    private final int commentsPerSubmission;
+    private final int httpMaxConnections;
+    private final int httpMaxConnectionsPerRoute;
+    private final int httpKeepAliveSeconds;
+    private final int httpIdleTimeoutSeconds;
+    private final int httpConnectTimeoutSeconds;
+    private final int httpReadTimeoutSeconds;
+    private final int analysisCacheEntries;
+    private final String analysisCacheDirectory;
+    private final int analysisCacheDiskEntries;
+    private final int submissionCacheEntries;
+    private final int submissionCacheMinutes;
+    private final int deliveryCacheEntries;
+    private final int deliveryCacheMinutes;
+    private final String jobJournalDirectory;
+    private final boolean profileAnalysis;
+    private final int fetchThreads;
+    private final int fetchQueueCapacity;
+    private final int fetchTimeoutSeconds;
+    private final int analysisThreads;
+    private final int analysisQueueCapacity;
+    private final int analysisTimeoutSeconds;
+    private final int commentTimeoutSeconds;
+    private final int maxFileBytes;
+    private final int maxSubmissionBytes;
 
     /**
      * Create a new configuration
@@ -35,14 +64,81 @@ public class Configuration {
      * @param webhookSecret a secret that Atelier uses to sign the webhook requests
      * @param publicKey the public key of this application, used for initial authentication
      * @param privateKey the private key corresponding with the public key
+     * @param asyncIntake whether webhooks are queued and answered immediately, instead of handled on the request thread
+     * @param workerThreads the number of worker threads that handle queued webhooks
+     * @param queueCapacity the maximum number of webhooks that can wait in the queue
+     * @param commentThreads the maximum number of comments that are posted at the same time
+     * @param commentsPerSubmission the maximum number of comments on a single submission that are posted at the same time
+     * @param httpMaxConnections the maximum number of open connections to Atelier
+     * @param httpMaxConnectionsPerRoute the maximum number of open connections to a single host
+     * @param httpKeepAliveSeconds how long a connection may be kept open for reuse, at most
+     * @param httpIdleTimeoutSeconds how long a connection may be idle before it is closed
+     * @param httpConnectTimeoutSeconds how long to wait for a connection to Atelier
+     * @param httpReadTimeoutSeconds how long to wait for data from Atelier
+     * @param analysisCacheEntries the number of analysis results that are kept in memory, 0 to disable the cache
+     * @param analysisCacheDirectory the directory to store analysis results in, or null to keep them in memory only
+     * @param analysisCacheDiskEntries the number of analysis results that are kept in the cache directory
+     * @param submissionCacheEntries the number of submissions whose files are kept for later file events
+     * @param submissionCacheMinutes how long the files of a submission are kept after they were last used
+     * @param deliveryCacheEntries the number of webhook deliveries that are remembered to skip duplicates, 0 to disable
+     * @param deliveryCacheMinutes how long a webhook delivery is remembered after it was handled
+     * @param jobJournalDirectory the directory of the journal of queued webhooks, or null to keep them in memory only
+     * @param profileAnalysis whether the time spent in every phase and rule of the analysis is measured and logged
+     * @param fetchThreads the number of files that are downloaded from Atelier at the same time
+     * @param fetchQueueCapacity the maximum number of files that can wait to be downloaded
+     * @param fetchTimeoutSeconds how long downloading all files of a submission may take
+     * @param analysisThreads the number of projects that are analysed at the same time
+     * @param analysisQueueCapacity the maximum number of projects that can wait to be analysed
+     * @param analysisTimeoutSeconds how long the analysis of a project may take
+     * @param commentTimeoutSeconds how long posting all comments on a submission may take
+     * @param maxFileBytes the maximum size of a single file that is downloaded
+     * @param maxSubmissionBytes the maximum size of all files of a submission together
      */
     private Configuration(String atelierHost, String atelierPluginUserID, String webhookSecret, PublicKey publicKey,
-            PrivateKey privateKey) {
+            PrivateKey privateKey, boolean asyncIntake, int workerThreads, int queueCapacity,
+            int commentThreads, int commentsPerSubmission,
+            int httpMaxConnections, int httpMaxConnectionsPerRoute, int httpKeepAliveSeconds,
+            int httpIdleTimeoutSeconds, int httpConnectTimeoutSeconds, int httpReadTimeoutSeconds,
+            int analysisCacheEntries, String analysisCacheDirectory, int analysisCacheDiskEntries,
+            int submissionCacheEntries, int submissionCacheMinutes, int deliveryCacheEntries,
+            int deliveryCacheMinutes, String jobJournalDirectory, boolean profileAnalysis, int fetchThreads,
+            int fetchQueueCapacity, int fetchTimeoutSeconds, int analysisThreads, int analysisQueueCapacity,
+            int analysisTimeoutSeconds, int commentTimeoutSeconds,
+            int maxFileBytes, int maxSubmissionBytes) {
         this.atelierHost = atelierHost;
         this.atelierPluginUserID = atelierPluginUserID;
         this.webhookSecret = webhookSecret;
         this.publicKey = publicKey;
         this.privateKey = privateKey;
+        this.asyncIntake = asyncIntake;
+        this.workerThreads = workerThreads;
+        this.queueCapacity = queueCapacity;
+        this.commentThreads = commentThreads;
+        this.commentsPerSubmission = commentsPerSubmission;
+        this.httpMaxConnections = httpMaxConnections;
+        this.httpMaxConnectionsPerRoute = httpMaxConnectionsPerRoute;
+        this.httpKeepAliveSeconds = httpKeepAliveSeconds;
+        this.httpIdleTimeoutSeconds = httpIdleTimeoutSeconds;
+        this.httpConnectTimeoutSeconds = httpConnectTimeoutSeconds;
+        this.httpReadTimeoutSeconds = httpReadTimeoutSeconds;
+        this.analysisCacheEntries = analysisCacheEntries;
+        this.analysisCacheDirectory = analysisCacheDirectory;
+        this.analysisCacheDiskEntries = analysisCacheDiskEntries;
+        this.submissionCacheEntries = submissionCacheEntries;
+        this.submissionCacheMinutes = submissionCacheMinutes;
+        this.deliveryCacheEntries = deliveryCacheEntries;
+        this.deliveryCacheMinutes = deliveryCacheMinutes;
+        this.jobJournalDirectory = jobJournalDirectory;
+        this.profileAnalysis = profileAnalysis;
+        this.fetchThreads = fetchThreads;
+        this.fetchQueueCapacity = fetchQueueCapacity;
+        this.fetchTimeoutSeconds = fetchTimeoutSeconds;
+        this.analysisThreads = analysisThreads;
+        this.analysisQueueCapacity = analysisQueueCapacity;
+        this.analysisTimeoutSeconds = analysisTimeoutSeconds;
+        this.commentTimeoutSeconds = commentTimeoutSeconds;
+        this.maxFileBytes = maxFileBytes;
+        this.maxSubmissionBytes = maxSubmissionBytes;
     }
 
     private static String getProp(String value, String field) throws ConfigurationException {
@@ -76,6 +172,34 @@ public class Configuration {
         return getProp(value, field);
     }
 
+    /** Get an optional property, falling back to the default value if it is not set */
+    private static String getOptionalJsonProp(JsonObject json, String field, String defaultValue) throws ConfigurationException {
+        if (!json.has(field) || json.get(field).isJsonNull())
+            return defaultValue;
+        return getJsonProp(json, field);
+    }
+
+    private static int getOptionalJsonInt(JsonObject json, String field, int defaultValue, int minimum) throws ConfigurationException {
+        var value = getOptionalJsonProp(json, field, Integer.toString(defaultValue));
+        try {
+            var result = Integer.parseInt(value.trim());
+            if (result < minimum)
+                throw new ConfigurationException("Field " + field + " must be at least " + minimum + ".");
+            return result;
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Expected field " + field + " to be an integer.", e);
+        }
+    }
+
+    private static boolean getOptionalJsonBoolean(JsonObject json, String field, boolean defaultValue) throws ConfigurationException {
+        var value = getOptionalJsonProp(json, field, Boolean.toString(defaultValue)).trim();
+        if (value.equalsIgnoreCase("true"))
+            return true;
+        if (value.equalsIgnoreCase("false"))
+            return false;
+        throw new ConfigurationException("Expected field " + field + " to be a boolean.");
+    }
+
     /** 
      * Read the configuration JSON file from the file location specified by the 
      * ATELIER_PMD_CONFIG environment variable 
@@ -115,7 +239,36 @@ public class Configuration {
             getJsonProp(config, "atelierPluginUserID"), 
             getJsonProp(config, "webhookSecret"), 
             keyPair.getPublic(),
-            keyPair.getPrivate()
+            keyPair.getPrivate(),
+            getOptionalJsonBoolean(config, "asyncIntake", true),
+            getOptionalJsonInt(config, "workerThreads", 2, 1),
+            getOptionalJsonInt(config, "queueCapacity", 32, 1),
+            getOptionalJsonInt(config, "commentThreads", 8, 1),
+            getOptionalJsonInt(config, "commentsPerSubmission", 4, 1),
+            getOptionalJsonInt(config, "httpMaxConnections", 20, 1),
+            getOptionalJsonInt(config, "httpMaxConnectionsPerRoute", 20, 1),
+            getOptionalJsonInt(config, "httpKeepAliveSeconds", 30, 0),
+            getOptionalJsonInt(config, "httpIdleTimeoutSeconds", 30, 1),
+            getOptionalJsonInt(config, "httpConnectTimeoutSeconds", 10, 1),
+            getOptionalJsonInt(config, "httpReadTimeoutSeconds", 60, 1),
+            getOptionalJsonInt(config, "analysisCacheEntries", 256, 0),
+            getOptionalJsonProp(config, "analysisCacheDirectory", null),
+            getOptionalJsonInt(config, "analysisCacheDiskEntries", 4096, 1),
+            getOptionalJsonInt(config, "submissionCacheEntries", 64, 0),
+            getOptionalJsonInt(config, "submissionCacheMinutes", 60, 1),
+            getOptionalJsonInt(config, "deliveryCacheEntries", 1024, 0),
+            getOptionalJsonInt(config, "deliveryCacheMinutes", 30, 1),
+            getOptionalJsonProp(config, "jobJournalDirectory", null),
+            getOptionalJsonBoolean(config, "profileAnalysis", false),
+            getOptionalJsonInt(config, "fetchThreads", 8, 1),
+            getOptionalJsonInt(config, "fetchQueueCapacity", 256, 1),
+            getOptionalJsonInt(config, "fetchTimeoutSeconds", 120, 1),
+            getOptionalJsonInt(config, "analysisThreads", Runtime.getRuntime().availableProcessors(), 1),
+            getOptionalJsonInt(config, "analysisQueueCapacity", 32, 1),
+            getOptionalJsonInt(config, "analysisTimeoutSeconds", 300, 1),
+            getOptionalJsonInt(config, "commentTimeoutSeconds", 300, 1),
+            getOptionalJsonInt(config, "maxFileBytes", 1024 * 1024, 1),
+            getOptionalJsonInt(config, "maxSubmissionBytes", 10 * 1024 * 1024, 1)
         );
     }
 
@@ -143,4 +296,149 @@ public class Configuration {
     public PrivateKey getPrivateKey() {
         return privateKey;
     }
+
+    /** Whether webhooks are queued and acknowledged immediately, rather than handled on the request thread */
+    public boolean isAsyncIntake() {
+        return asyncIntake;
+    }
+
+    /** The number of worker threads that handle queued webhooks */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /** The maximum number of webhooks that can wait in the queue before new ones are refused */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /** The maximum number of comments that are posted to Atelier at the same time */
+    public int getCommentThreads() {
+        return commentThreads;
+    }
+
+    /** The maximum number of comments on a single submission that are posted to Atelier at the same time */
+    public int getCommentsPerSubmission() {
+        return commentsPerSubmission;
+    }
+
+    /** The maximum number of connections to Atelier that are open at the same time */
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    /** The maximum number of connections to a single host that are open at the same time */
+    public int getHttpMaxConnectionsPerRoute() {
+        return httpMaxConnectionsPerRoute;
+    }
+
+    /** How long a connection may be kept open for reuse, at most, in seconds */
+    public int getHttpKeepAliveSeconds() {
+        return httpKeepAliveSeconds;
+    }
+
+    /** How long a connection may be idle before it is closed, in seconds */
+    public int getHttpIdleTimeoutSeconds() {
+        return httpIdleTimeoutSeconds;
+    }
+
+    /** How long to wait for a connection to Atelier, in seconds */
+    public int getHttpConnectTimeoutSeconds() {
+        return httpConnectTimeoutSeconds;
+    }
+
+    /** How long to wait for data from Atelier on an open connection, in seconds */
+    public int getHttpReadTimeoutSeconds() {
+        return httpReadTimeoutSeconds;
+    }
+
+    /** The number of analysis results that are kept in memory, 0 if the cache is disabled */
+    public int getAnalysisCacheEntries() {
+        return analysisCacheEntries;
+    }
+
+    /** The directory in which analysis results are stored, or null if they are only kept in memory */
+    public String getAnalysisCacheDirectory() {
+        return analysisCacheDirectory;
+    }
+
+    /** The number of analysis results that are kept in the cache directory */
+    public int getAnalysisCacheDiskEntries() {
+        return analysisCacheDiskEntries;
+    }
+
+    /** The number of submissions whose files are kept for later file events */
+    public int getSubmissionCacheEntries() {
+        return submissionCacheEntries;
+    }
+
+    /** How long the files of a submission are kept after they were last used, in minutes */
+    public int getSubmissionCacheMinutes() {
+        return submissionCacheMinutes;
+    }
+
+    /** The number of webhook deliveries that are remembered to skip duplicates, 0 if duplicates are not skipped */
+    public int getDeliveryCacheEntries() {
+        return deliveryCacheEntries;
+    }
+
+    /** How long a webhook delivery is remembered after it was handled, in minutes */
+    public int getDeliveryCacheMinutes() {
+        return deliveryCacheMinutes;
+    }
+
+    /** The directory of the journal of queued webhooks, or null if queued webhooks are only kept in memory */
+    public String getJobJournalDirectory() {
+        return jobJournalDirectory;
+    }
+
+    /** Whether the time spent in every phase and rule of the analysis is measured and logged */
+    public boolean isProfileAnalysis() {
+        return profileAnalysis;
+    }
+
+    /** The number of files that are downloaded from Atelier at the same time */
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    /** The maximum number of files that can wait to be downloaded before new downloads are refused */
+    public int getFetchQueueCapacity() {
+        return fetchQueueCapacity;
+    }
+
+    /** How long downloading all files of a submission may take, in seconds */
+    public int getFetchTimeoutSeconds() {
+        return fetchTimeoutSeconds;
+    }
+
+    /** The number of projects that are analysed at the same time */
+    public int getAnalysisThreads() {
+        return analysisThreads;
+    }
+
+    /** The maximum number of projects that can wait to be analysed before new analyses are refused */
+    public int getAnalysisQueueCapacity() {
+        return analysisQueueCapacity;
+    }
+
+    /** How long the analysis of a project may take, in seconds */
+    public int getAnalysisTimeoutSeconds() {
+        return analysisTimeoutSeconds;
+    }
+
+    /** How long posting all comments on a submission may take, in seconds */
+    public int getCommentTimeoutSeconds() {
+        return commentTimeoutSeconds;
+    }
+
+    /** The maximum size of a single file that is downloaded, in bytes */
+    public int getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /** The maximum size of all files of a submission together, in bytes */
+    public int getMaxSubmissionBytes() {
+        return maxSubmissionBytes;
+    }
 }
\ No newline at end of file
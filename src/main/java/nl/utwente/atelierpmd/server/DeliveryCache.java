@@ -0,0 +1,131 @@
+package nl.utwente.atelierpmd.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import nl.utwente.atelierpmd.metrics.Metrics;
+
+/**
+ * Remembers the webhook deliveries that are being handled or were handled recently. Atelier retries deliveries, so
+ * the same event may arrive more than once; a delivery that is already known is acknowledged without analysing the
+ * submission and posting its comments again. Deliveries that are being handled are kept until they are completed
+ * or released, however long that takes; only handled deliveries expire or make room for new ones.
+ */
+public class DeliveryCache {
+    private final int maxDeliveries;
+    private final long timeToLiveNanos;
+    /** The deliveries that are claimed, and not completed or released yet */
+    private final Set<String> inFlight = new HashSet<>();
+    /** The time every handled delivery was completed, from least to most recently completed */
+    private final Map<String, Long> deliveries;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Create a new cache
+     * @param maxDeliveries the maximum number of handled deliveries that are remembered
+     * @param timeToLive how long a delivery is remembered after it was completed
+     */
+    public DeliveryCache(int maxDeliveries, long timeToLive, TimeUnit unit) {
+        this.maxDeliveries = maxDeliveries;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.deliveries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > DeliveryCache.this.maxDeliveries;
+            }
+        };
+    }
+
+    /**
+     * The identity of a delivery: the event, the submission and files it is about, and a digest of the request body.
+     * A retried delivery has the same identity as the original one.
+     * @param bodyDigest a digest of the request body, like its signature
+     */
+    public static String key(String event, JsonObject payload, byte[] bodyDigest) {
+        String submissionID;
+        var fileIDs = new ArrayList<String>();
+        if (event.equals("submission.file")) {
+            submissionID = getString(payload.getAsJsonObject("references"), "submissionID");
+            fileIDs.add(getString(payload, "ID"));
+        } else {
+            submissionID = getString(payload, "ID");
+            var files = payload.getAsJsonArray("files");
+            if (files != null) {
+                for (var file : files) {
+                    fileIDs.add(getString(file.getAsJsonObject(), "ID"));
+                }
+            }
+        }
+        Collections.sort(fileIDs);
+
+        return event + "|" + submissionID + "|" + String.join(",", fileIDs) + "|"
+            + Base64.getEncoder().encodeToString(bodyDigest);
+    }
+
+    private static String getString(JsonObject object, String member) {
+        JsonElement element = object != null ? object.get(member) : null;
+        return element != null && !element.isJsonNull() ? element.getAsString() : "";
+    }
+
+    /**
+     * Claim a delivery before handling it.
+     * @return true if the delivery is new and should be handled, false if it is a duplicate of a delivery that is
+     *   being handled or was handled recently
+     */
+    public synchronized boolean claim(String key) {
+        removeExpired();
+        if (inFlight.contains(key) || deliveries.containsKey(key)) {
+            hits++;
+            Metrics.DELIVERY_CACHE_LOOKUPS.inc("hit");
+            return false;
+        }
+        misses++;
+        Metrics.DELIVERY_CACHE_LOOKUPS.inc("miss");
+        inFlight.add(key);
+        return true;
+    }
+
+    /** Remember that a claimed delivery was handled, so duplicates are skipped for the full time to live */
+    public synchronized void complete(String key) {
+        if (inFlight.remove(key)) {
+            deliveries.put(key, System.nanoTime());
+        }
+    }
+
+    /** Forget a claimed delivery that could not be handled, so it is handled again when Atelier retries it */
+    public synchronized void release(String key) {
+        inFlight.remove(key);
+    }
+
+    /** The number of deliveries that are remembered, including those that are being handled */
+    public synchronized int size() {
+        removeExpired();
+        return inFlight.size() + deliveries.size();
+    }
+
+    /** Short description of the cache, for logging */
+    public synchronized String describe() {
+        return String.format("%d deliveries being handled, %d handled deliveries remembered, %d duplicates skipped, "
+            + "%d new", inFlight.size(), deliveries.size(), hits, misses);
+    }
+
+    private void removeExpired() {
+        var now = System.nanoTime();
+        // Entries are in the order in which they were completed, so the expired entries are all at the start
+        var iterator = deliveries.values().iterator();
+        while (iterator.hasNext() && now - iterator.next() > timeToLiveNanos) {
+            iterator.remove();
+        }
+    }
+}
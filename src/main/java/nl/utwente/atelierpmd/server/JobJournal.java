@@ -0,0 +1,398 @@
+package nl.utwente.atelierpmd.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the jobs that were accepted, so the jobs that did not finish can be run again after a
+ * restart. The journal is a sequence of memory-mapped segment files in a directory. Every record has a checksum, so
+ * a record that was only partly written when the application stopped is recognised and ignored.
+ *
+ * Appending a job returns once the job is on disk. Threads that append at the same time share a single flush of
+ * the segment (group commit). Completion markers are not flushed right away: when one is lost, the job is run
+ * again after a restart. Segments in which every job has completed are removed, and jobs that stay unfinished for
+ * long are copied to the newest segment, so old segments can be removed.
+ */
+public class JobJournal implements Closeable {
+    /** The default size of a segment, 16 MB */
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    private static final byte ACCEPTED = 1;
+    private static final byte COMPLETED = 2;
+    /** Length and checksum of a record, followed by the part the checksum covers: type, job ID and body */
+    private static final int HEADER_BYTES = 4 + 4;
+    private static final int TYPE_AND_ID_BYTES = 1 + 8;
+    /** The number of segments from which the unfinished jobs of the oldest segment are copied to the newest */
+    private static final int MAX_SEGMENTS = 4;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** A job that was accepted, but not completed before the application stopped */
+    public static class Job {
+        private final long id;
+        private final byte[] body;
+
+        private Job(long id, byte[] body) {
+            this.id = id;
+            this.body = body;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /** The body of the webhook request of the job */
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    /** A segment file, mapped in memory */
+    private static class Segment {
+        private final long number;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int position = 0;
+        /** The number of jobs accepted in this segment that have not completed yet */
+        private int pending = 0;
+
+        private Segment(long number, Path file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /** The location of the body of an unfinished job, to copy it when its segment is compacted */
+    private static class PendingJob {
+        private final Segment segment;
+        private final int bodyPosition;
+        private final int bodyLength;
+
+        private PendingJob(Segment segment, int bodyPosition, int bodyLength) {
+            this.segment = segment;
+            this.bodyPosition = bodyPosition;
+            this.bodyLength = bodyLength;
+        }
+
+        private ByteBuffer body() {
+            return segment.buffer.duplicate().position(bodyPosition).limit(bodyPosition + bodyLength);
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    /** The segments, oldest first. Records are appended to the last one. */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /** Where the accepted record of every unfinished job is */
+    private final Map<Long, PendingJob> pendingJobs = new HashMap<>();
+    /** The jobs that were unfinished when the journal was opened */
+    private final List<Job> unfinishedJobs;
+    private long nextJobId = 1;
+    /** The number of records appended, the last one has this sequence number */
+    private long appendedRecords = 0;
+    private boolean closed = false;
+
+    private final Object syncLock = new Object();
+    /** All records up to this sequence number are on disk */
+    private long durableRecords = 0;
+    /** Whether a thread is flushing the journal for the others */
+    private boolean syncing = false;
+
+    /**
+     * Open the journal in a directory, reading the jobs that were not completed. These jobs are copied to a new
+     * segment, and the old segments are removed.
+     * @param segmentBytes the size of a segment file, a larger job gets a segment of its own
+     */
+    public JobJournal(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+
+        List<Path> oldFiles;
+        try (var files = Files.list(directory)) {
+            oldFiles = files.filter(JobJournal::isSegmentFile)
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        var unfinished = new LinkedHashMap<Long, byte[]>();
+        var lastSegment = 0L;
+        for (var file : oldFiles) {
+            lastSegment = Math.max(lastSegment, segmentNumber(file));
+            read(file, unfinished);
+        }
+        unfinishedJobs = unfinished.entrySet().stream()
+            .map(entry -> new Job(entry.getKey(), entry.getValue()))
+            .collect(Collectors.toUnmodifiableList());
+
+        // Start with a compacted segment, which only holds the unfinished jobs
+        synchronized (this) {
+            segments.add(createSegment(lastSegment + 1, 0));
+            for (var job : unfinishedJobs) {
+                write(ACCEPTED, job.getId(), ByteBuffer.wrap(job.getBody()));
+            }
+            segments.getLast().buffer.force();
+            durableRecords = appendedRecords;
+        }
+        for (var file : oldFiles) {
+            Files.delete(file);
+        }
+    }
+
+    private static boolean isSegmentFile(Path file) {
+        var name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(Path file) {
+        var name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /** Read the records of a segment file, stopping at the end of the records or at a damaged record */
+    private void read(Path file, Map<Long, byte[]> unfinished) throws IOException {
+        var buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        var checksum = new CRC32C();
+        var position = 0;
+        while (position + HEADER_BYTES + TYPE_AND_ID_BYTES <= buffer.capacity()) {
+            var length = buffer.getInt(position);
+            if (length < TYPE_AND_ID_BYTES || position + HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(buffer.array(), position + HEADER_BYTES, length);
+            if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                System.out.println("Ignoring damaged record at " + position + " in job journal " + file);
+                break;
+            }
+            var type = buffer.get(position + HEADER_BYTES);
+            var id = buffer.getLong(position + HEADER_BYTES + 1);
+            nextJobId = Math.max(nextJobId, id + 1);
+            if (type == ACCEPTED) {
+                var bodyStart = position + HEADER_BYTES + TYPE_AND_ID_BYTES;
+                var bodyEnd = position + HEADER_BYTES + length;
+                unfinished.put(id, Arrays.copyOfRange(buffer.array(), bodyStart, bodyEnd));
+            } else if (type == COMPLETED) {
+                unfinished.remove(id);
+            }
+            position += HEADER_BYTES + length;
+        }
+    }
+
+    private Segment createSegment(long number, int minimumBytes) throws IOException {
+        var file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        var size = Math.max(segmentBytes, minimumBytes);
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(number, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /** The jobs that were accepted but not completed when the journal was opened, to run them again */
+    public List<Job> getUnfinishedJobs() {
+        return unfinishedJobs;
+    }
+
+    /**
+     * Add an accepted job to the journal. The job is on disk when this returns. The body is copied, so the array
+     * may be reused afterwards.
+     * @param body the array with the body of the webhook request of the job
+     * @param length the length of the body, which starts at the beginning of the array
+     * @return the ID of the job, to mark it as completed later
+     */
+    public long append(byte[] body, int length) throws IOException {
+        long id;
+        long sequence;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The job journal is closed");
+            }
+            id = nextJobId++;
+            sequence = write(ACCEPTED, id, ByteBuffer.wrap(body, 0, length));
+        }
+        sync(sequence);
+        return id;
+    }
+
+    /** Mark a job as completed, so it is not run again after a restart. Jobs of a previous run may be completed too. */
+    public synchronized void complete(long id) {
+        var job = pendingJobs.remove(id);
+        if (closed || job == null) {
+            return;
+        }
+        job.segment.pending--;
+        try {
+            write(COMPLETED, id, ByteBuffer.allocate(0));
+            removeCompletedSegments();
+        } catch (IOException e) {
+            System.out.println("Could not mark job " + id + " as completed in the job journal: " + e.getMessage());
+        }
+    }
+
+    /** Write a record to the newest segment, starting a new segment when it is full. Hold the lock of the journal. */
+    private long write(byte type, long id, ByteBuffer body) throws IOException {
+        var recordBytes = recordBytes(body.remaining());
+        var segment = segments.getLast();
+        if (segment.position + recordBytes > segment.buffer.capacity()) {
+            segment = roll(recordBytes);
+        }
+        return put(segment, type, id, body);
+    }
+
+    private static int recordBytes(int bodyLength) {
+        return HEADER_BYTES + TYPE_AND_ID_BYTES + bodyLength;
+    }
+
+    /** Write a record to a segment that has room for it. Hold the lock of the journal. */
+    private long put(Segment segment, byte type, long id, ByteBuffer body) {
+        var bodyLength = body.remaining();
+        var length = TYPE_AND_ID_BYTES + bodyLength;
+        var recordBytes = HEADER_BYTES + length;
+
+        var record = segment.buffer.duplicate();
+        record.position(segment.position + HEADER_BYTES);
+        record.put(type);
+        record.putLong(id);
+        record.put(body);
+        var checksum = new CRC32C();
+        record.position(segment.position + HEADER_BYTES);
+        record.limit(segment.position + recordBytes);
+        checksum.update(record);
+        // The length is written last, a record without length is where the reading stops
+        segment.buffer.putInt(segment.position + 4, (int) checksum.getValue());
+        segment.buffer.putInt(segment.position, length);
+        segment.position += recordBytes;
+
+        if (type == ACCEPTED) {
+            segment.pending++;
+            pendingJobs.put(id, new PendingJob(segment, segment.position - bodyLength, bodyLength));
+        }
+        return ++appendedRecords;
+    }
+
+    /**
+     * Start a new segment. The full segment is flushed first, so a flush of the newest segment is enough to have
+     * all records on disk. When there are many segments, the unfinished jobs of the oldest segment are copied to
+     * the new one, so the oldest segment can be removed. The new segment is large enough for these jobs and the
+     * record that did not fit.
+     */
+    private Segment roll(int recordBytes) throws IOException {
+        var full = segments.getLast();
+        full.buffer.force();
+
+        var moved = new ArrayList<Long>();
+        var neededBytes = recordBytes;
+        var oldest = segments.getFirst();
+        if (segments.size() + 1 > MAX_SEGMENTS) {
+            for (var entry : pendingJobs.entrySet()) {
+                if (entry.getValue().segment == oldest) {
+                    moved.add(entry.getKey());
+                    neededBytes += recordBytes(entry.getValue().bodyLength);
+                }
+            }
+            Collections.sort(moved);
+        }
+
+        var segment = createSegment(full.number + 1, neededBytes);
+        segments.add(segment);
+        if (segments.size() > MAX_SEGMENTS) {
+            for (var id : moved) {
+                oldest.pending--;
+                put(segment, ACCEPTED, id, pendingJobs.get(id).body());
+            }
+            // The copies must be on disk before the originals are removed
+            segment.buffer.force();
+            removeCompletedSegments();
+        }
+        return segment;
+    }
+
+    /** Remove the oldest segments while all their jobs have completed */
+    private void removeCompletedSegments() throws IOException {
+        while (segments.size() > 1 && segments.getFirst().pending == 0) {
+            Files.deleteIfExists(segments.removeFirst().file);
+        }
+    }
+
+    /**
+     * Wait until a record is on disk. One of the waiting threads flushes the newest segment, which writes the
+     * records of all threads that appended before the flush started.
+     */
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            while (durableRecords < sequence) {
+                if (!syncing) {
+                    syncing = true;
+                    break;
+                }
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the job journal", e);
+                }
+            }
+            if (durableRecords >= sequence) {
+                return;
+            }
+        }
+
+        long target;
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            target = appendedRecords;
+            buffer = segments.getLast().buffer;
+        }
+        var flushed = false;
+        try {
+            buffer.force();
+            flushed = true;
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                if (flushed) {
+                    durableRecords = Math.max(durableRecords, target);
+                }
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /** The number of jobs that have not completed */
+    public synchronized int getPendingJobs() {
+        return pendingJobs.size();
+    }
+
+    /** Short description of the journal, for logging */
+    public synchronized String describe() {
+        return String.format("%d unfinished jobs in %d segments in %s", pendingJobs.size(), segments.size(),
+            directory);
+    }
+
+    /** Flush the journal and stop accepting jobs. Jobs that have not completed are run again on the next start. */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments.getLast().buffer.force();
+    }
+}
@@ -0,0 +1,163 @@
+package nl.utwente.atelierpmd.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process queue of webhook jobs, drained by a fixed pool of worker threads. Jobs that do not fit in
+ * the queue are refused instead of blocking the caller, so the request thread can answer right away.
+ */
+public class JobQueue {
+    private final ThreadPoolExecutor executor;
+    private final int workers;
+    private final long startTime = System.nanoTime();
+
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Create a new job queue
+     * @param workers the number of worker threads that run jobs
+     * @param capacity the maximum number of jobs that can wait for a worker
+     */
+    public JobQueue(int workers, int capacity) {
+        this.workers = workers;
+        var threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            var thread = new Thread(runnable, "atelier-pmd-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Add a job to the queue
+     * @param description short description of the job, used for logging
+     * @param job the work to do
+     * @return false if the queue is full and the job was not accepted
+     */
+    public boolean submit(String description, Runnable job) {
+        var enqueued = System.nanoTime();
+        try {
+            executor.execute(() -> run(description, job, enqueued));
+            accepted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void run(String description, Runnable job, long enqueued) {
+        var started = System.nanoTime();
+        var waited = started - enqueued;
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        busyWorkers.incrementAndGet();
+        try {
+            job.run();
+        } catch (RuntimeException e) {
+            System.out.println("Job " + description + " failed.");
+            e.printStackTrace();
+        } finally {
+            var finished = System.nanoTime();
+            busyWorkers.decrementAndGet();
+            busyNanos.addAndGet(finished - started);
+            completed.incrementAndGet();
+            System.out.printf("Finished job %s in %d ms after waiting %d ms. Queue depth: %d, busy workers: %d/%d.%n",
+                description, TimeUnit.NANOSECONDS.toMillis(finished - started), TimeUnit.NANOSECONDS.toMillis(waited),
+                getQueueDepth(), getBusyWorkers(), workers);
+        }
+    }
+
+    /** Number of jobs waiting for a worker */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** Number of workers currently running a job */
+    public int getBusyWorkers() {
+        return busyWorkers.get();
+    }
+
+    /** Total number of worker threads */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /** Fraction of the available worker time that has been spent running jobs since the queue was created */
+    public double getUtilisation() {
+        var available = (double) (System.nanoTime() - startTime) * workers;
+        return available <= 0 ? 0 : Math.min(1.0, busyNanos.get() / available);
+    }
+
+    /** Average time a job waited in the queue before a worker picked it up, in milliseconds */
+    public long getAverageWaitMillis() {
+        var count = completed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.get() / count);
+    }
+
+    /** Longest time a job waited in the queue before a worker picked it up, in milliseconds */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /** Number of jobs that were accepted into the queue */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /** Number of jobs that were refused because the queue was full */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Number of jobs that have finished, successfully or not */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Estimate how many seconds it takes before the queue has room again, based on the average time jobs
+     * have taken so far. Used for the Retry-After header when a job is refused.
+     */
+    public long estimateRetryAfterSeconds() {
+        var count = completed.get();
+        var averageJobNanos = count == 0 ? TimeUnit.SECONDS.toNanos(10) : busyNanos.get() / count;
+        var queuedNanos = averageJobNanos * (getQueueDepth() + 1) / workers;
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(queuedNanos));
+    }
+
+    /** Summary of the queue statistics, for logging */
+    public String describe() {
+        return String.format("queue depth %d, busy workers %d/%d, utilisation %.0f%%, average wait %d ms, " +
+                "max wait %d ms, accepted %d, rejected %d, completed %d",
+            getQueueDepth(), getBusyWorkers(), workers, getUtilisation() * 100, getAverageWaitMillis(),
+            getMaxWaitMillis(), getAccepted(), getRejected(), getCompleted());
+    }
+
+    /** Stop accepting jobs and give the running jobs some time to finish */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package nl.utwente.atelierpmd.server;
+
+import java.io.IOException;
+
+import javax.servlet.http.*;
+
+import nl.utwente.atelierpmd.metrics.MetricsRegistry;
+
+/** Servlet that exposes the metrics of the application in the Prometheus text format */
+public class MetricsServlet extends HttpServlet {
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(200);
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        MetricsRegistry.DEFAULT.write(response.getWriter());
+    }
+}
@@ -0,0 +1,161 @@
+package nl.utwente.atelierpmd.server;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import nl.utwente.atelier.exceptions.CryptoException;
+
+/**
+ * Reads the bodies of webhook requests and computes their HMAC-SHA1 signature at the same time, so the body is read
+ * only once. Every thread has its own MAC, keyed with the webhook secret once, and its own buffers for the body and
+ * its text, which are reused for the next request on the same thread.
+ */
+public class SignatureVerifier {
+    private static final String ALGORITHM = "HmacSHA1";
+    private static final int INITIAL_BUFFER_BYTES = 8 * 1024;
+    /**
+     * Buffers larger than this are not kept for the next request. Every request thread keeps its buffers, and
+     * webhook bodies are only a few KB, so a larger body gets buffers that are dropped after the request.
+     */
+    private static final int MAX_POOLED_BUFFER_BYTES = 64 * 1024;
+    /** The largest buffer that is allocated up front for the length a request claims to have */
+    private static final int MAX_PRESIZED_BUFFER_BYTES = 1024 * 1024;
+
+    /** Text of a body, decoded with the decoder of the current thread into its buffer */
+    private static final ThreadLocal<CharsetDecoder> DECODERS = ThreadLocal.withInitial(
+        () -> StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    private static final ThreadLocal<char[]> TEXT_BUFFERS = ThreadLocal.withInitial(() -> new char[INITIAL_BUFFER_BYTES]);
+
+    /** A request body with its signature. The bytes belong to the thread that read them, until it reads another body. */
+    public static class Body {
+        private final byte[] bytes;
+        private final int length;
+        private final byte[] signature;
+
+        private Body(byte[] bytes, int length, byte[] signature) {
+            this.bytes = bytes;
+            this.length = length;
+            this.signature = signature;
+        }
+
+        /** The array that holds the body, which may be longer than the body */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /** The HMAC of the body, which also identifies its contents */
+        public byte[] getSignature() {
+            return signature;
+        }
+
+        /** Check if the signature of the body equals the expected one, taking the same time for any difference */
+        public boolean hasSignature(byte[] expected) {
+            return MessageDigest.isEqual(signature, expected);
+        }
+
+        /**
+         * Read the body as UTF-8 text. The text is decoded into the buffer of the current thread, and is only valid
+         * until the thread reads the text of another body.
+         */
+        public Reader reader() {
+            // UTF-8 never needs more characters than it has bytes
+            var text = TEXT_BUFFERS.get();
+            if (text.length < length) {
+                text = new char[length];
+                if ((long) length * Character.BYTES <= MAX_POOLED_BUFFER_BYTES) {
+                    TEXT_BUFFERS.set(text);
+                }
+            }
+            var decoder = DECODERS.get().reset();
+            var output = CharBuffer.wrap(text);
+            decoder.decode(ByteBuffer.wrap(bytes, 0, length), output, true);
+            decoder.flush(output);
+            return new CharArrayReader(text, 0, output.position());
+        }
+    }
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_BYTES]);
+
+    public SignatureVerifier(String secret) {
+        this.key = new SecretKeySpec(secret.getBytes(), ALGORITHM);
+    }
+
+    /** The MAC of the current thread, which is created and keyed on first use */
+    private Mac mac() throws CryptoException {
+        var mac = macs.get();
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new CryptoException(e);
+            }
+            macs.set(mac);
+        }
+        return mac;
+    }
+
+    /**
+     * Read a body to its end into the buffer of the current thread, computing its signature along the way
+     * @param expectedLength the length of the body if it is known, or -1, to size the buffer up front
+     */
+    public Body read(InputStream input, int expectedLength) throws IOException, CryptoException {
+        var mac = mac();
+        // A previous read that failed halfway may have left data in the MAC
+        mac.reset();
+        var buffer = buffers.get();
+        if (expectedLength > buffer.length) {
+            // The length comes from the request, so a larger body still has to arrive to grow the buffer further
+            buffer = new byte[Math.min(expectedLength, MAX_PRESIZED_BUFFER_BYTES)];
+        }
+        var length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                // Only grow the buffer if the body does not end exactly at its end
+                var next = input.read();
+                if (next < 0) break;
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[length] = (byte) next;
+                mac.update(buffer, length, 1);
+                length++;
+            }
+            var read = input.read(buffer, length, buffer.length - length);
+            if (read < 0) break;
+            mac.update(buffer, length, read);
+            length += read;
+        }
+        if (buffer.length <= MAX_POOLED_BUFFER_BYTES) {
+            buffers.set(buffer);
+        }
+        return new Body(buffer, length, mac.doFinal());
+    }
+
+    /** Compute the signature of a body that was read before, like a body from the job journal */
+    public Body sign(byte[] body) throws CryptoException {
+        var mac = mac();
+        mac.reset();
+        return new Body(body, body.length, mac.doFinal(body));
+    }
+}
@@ -0,0 +1,176 @@
+package nl.utwente.atelierpmd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import nl.utwente.atelier.exceptions.StageException;
+
+/**
+ * A stage in handling webhook jobs, like fetching files or running the analysis, with its own pool of threads.
+ * The work a job hands to a stage has a time limit, after which it is cancelled. The work waiting for a thread of
+ * the stage is limited as well: work that does not fit is refused, instead of piling up in memory.
+ */
+public class Stage {
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutNanos;
+
+    /** Work that runs on a thread of the stage */
+    @FunctionalInterface
+    public interface Task<T> {
+        /**
+         * Do the work
+         * @param cancellation register here how to stop work that blocks, like a request that is waiting for data
+         */
+        T run(Cancellation cancellation) throws Exception;
+    }
+
+    /** Actions that stop a task when it is cancelled */
+    public static class Cancellation {
+        private final List<Runnable> actions = new ArrayList<>();
+        private boolean cancelled = false;
+
+        /** Run the action when the task is cancelled, or right away if that already happened */
+        public void onCancel(Runnable action) {
+            synchronized (this) {
+                if (!cancelled) {
+                    actions.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void cancel() {
+            List<Runnable> toRun;
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                cancelled = true;
+                toRun = new ArrayList<>(actions);
+            }
+            toRun.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Create a new stage
+     * @param name name of the stage, used for logging and the names of its threads
+     * @param threads the number of threads that do the work of this stage
+     * @param capacity the maximum number of tasks that can wait for a thread of this stage
+     * @param timeout how long the work of a single job in this stage may take
+     */
+    public Stage(String name, int threads, int capacity, long timeout, TimeUnit unit) {
+        this.name = name;
+        this.timeoutNanos = unit.toNanos(timeout);
+        var threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+            runnable -> {
+                var thread = new Thread(runnable, "atelier-pmd-" + name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /** Run a task on this stage and wait for its result */
+    public <T> T run(String description, Task<T> task) throws StageException {
+        return runAll(description, List.of(task)).get(0);
+    }
+
+    /**
+     * Run tasks at the same time on this stage and wait for all of their results. As soon as one of them fails, or
+     * when they take too long together, the other tasks are cancelled. When the stage has no room for all tasks,
+     * none of them run.
+     * @return the results, in the order of the tasks
+     */
+    public <T> List<T> runAll(String description, List<Task<T>> tasks) throws StageException {
+        var cancellations = new ArrayList<Cancellation>();
+        var futures = new ArrayList<CompletableFuture<T>>();
+        var failed = new CompletableFuture<Void>();
+        for (var task : tasks) {
+            var cancellation = new Cancellation();
+            CompletableFuture<T> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return task.run(cancellation);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+            } catch (RejectedExecutionException e) {
+                cancel(futures, cancellations);
+                throw new StageException(String.format("%s was refused, the %s stage is full.", description, name), e);
+            }
+            future.whenComplete((result, error) -> {
+                if (error != null) failed.completeExceptionally(error);
+            });
+            cancellations.add(cancellation);
+            futures.add(future);
+        }
+
+        var all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        try {
+            CompletableFuture.anyOf(all, failed).get(timeoutNanos, TimeUnit.NANOSECONDS);
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (TimeoutException e) {
+            cancel(futures, cancellations);
+            throw new StageException(String.format("%s did not finish within %d seconds in the %s stage.",
+                description, TimeUnit.NANOSECONDS.toSeconds(timeoutNanos), name));
+        } catch (ExecutionException e) {
+            cancel(futures, cancellations);
+            var cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw new StageException(String.format("%s failed in the %s stage: %s", description, name, cause), cause);
+        } catch (InterruptedException e) {
+            cancel(futures, cancellations);
+            Thread.currentThread().interrupt();
+            throw new StageException(String.format("Interrupted while waiting for %s in the %s stage.", description, name), e);
+        }
+    }
+
+    private static <T> void cancel(List<CompletableFuture<T>> futures, List<Cancellation> cancellations) {
+        // Tasks that did not start yet will not start at all, running tasks are stopped by their cancellation actions
+        futures.forEach(future -> future.cancel(false));
+        cancellations.forEach(Cancellation::cancel);
+    }
+
+    /** Number of threads currently doing work for this stage */
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    /** Number of tasks waiting for a thread of this stage */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** Stop the threads of this stage, giving the running tasks some time to finish */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
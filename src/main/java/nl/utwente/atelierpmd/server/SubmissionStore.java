@@ -0,0 +1,139 @@
+package nl.utwente.atelierpmd.server;
+
+import nl.utwente.processing.ProcessingFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the files of recently analysed submissions, and the violations that were posted on them, for a while. When
+ * a single file of a submission changes, the submission can be analysed again with all of its files, reusing the
+ * files that did not change, and without posting the same violations twice.
+ */
+public class SubmissionStore {
+    private final int maxSubmissions;
+    private final long timeToLiveNanos;
+    /** Submissions by ID, from least to most recently used */
+    private final Map<String, Submission> submissions;
+
+    /** The state of a single submission. Hold its lock while using it, so only one job updates it at a time. */
+    public static class Submission {
+        private final String id;
+        private List<ProcessingFile> files = List.of();
+        private final Set<String> postedViolations = new HashSet<>();
+        private boolean analysed = false;
+        private long lastUsed = System.nanoTime();
+
+        private Submission(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /** The files of the submission, in the order in which they were submitted */
+        public List<ProcessingFile> getFiles() {
+            return files;
+        }
+
+        /** Whether the submission has been analysed before, and its files are known */
+        public boolean isAnalysed() {
+            return analysed;
+        }
+
+        /** Replace all files of the submission, after they have been analysed */
+        public void setFiles(List<ProcessingFile> files) {
+            this.files = List.copyOf(files);
+            this.analysed = true;
+        }
+
+        /**
+         * Get the files of the submission with a single file replaced. The file with the same ID, or else the file
+         * with the same name, is replaced. If there is no such file, the file is added at the end.
+         */
+        public List<ProcessingFile> withFile(ProcessingFile file) {
+            var result = new ArrayList<>(files);
+            var index = -1;
+            for (int i = 0; i < result.size() && index < 0; i++) {
+                if (result.get(i).getId().equals(file.getId())) index = i;
+            }
+            for (int i = 0; i < result.size() && index < 0; i++) {
+                if (result.get(i).getName().equals(file.getName())) index = i;
+            }
+            if (index < 0) {
+                result.add(file);
+            } else {
+                result.set(index, file);
+            }
+            return result;
+        }
+
+        /** Keys of the violations that have been posted on this submission */
+        public Set<String> getPostedViolations() {
+            return Collections.unmodifiableSet(postedViolations);
+        }
+
+        /** Remember that violations have been posted on this submission */
+        public void addPostedViolations(Set<String> violations) {
+            postedViolations.addAll(violations);
+        }
+    }
+
+    /**
+     * Create a new store
+     * @param maxSubmissions the maximum number of submissions that are kept
+     * @param timeToLive how long a submission is kept after it was last used
+     */
+    public SubmissionStore(int maxSubmissions, long timeToLive, TimeUnit unit) {
+        this.maxSubmissions = maxSubmissions;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.submissions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Submission> eldest) {
+                return size() > SubmissionStore.this.maxSubmissions;
+            }
+        };
+    }
+
+    /** Get the stored state of a submission, or null if it is not known or has expired */
+    public synchronized Submission get(String submissionID) {
+        removeExpired();
+        var submission = submissions.get(submissionID);
+        if (submission != null) {
+            submission.lastUsed = System.nanoTime();
+        }
+        return submission;
+    }
+
+    /** Get the stored state of a submission, starting with an empty state if it is not known or has expired */
+    public synchronized Submission getOrCreate(String submissionID) {
+        var submission = get(submissionID);
+        if (submission == null) {
+            submission = new Submission(submissionID);
+            submissions.put(submissionID, submission);
+        }
+        return submission;
+    }
+
+    /** The number of submissions that are stored */
+    public synchronized int size() {
+        removeExpired();
+        return submissions.size();
+    }
+
+    private void removeExpired() {
+        var now = System.nanoTime();
+        // Entries are in order of use, so the expired entries are all at the start
+        var iterator = submissions.values().iterator();
+        while (iterator.hasNext() && now - iterator.next().lastUsed > timeToLiveNanos) {
+            iterator.remove();
+        }
+    }
+}
@@ -7,25 +7,39 @@ import javax.servlet.http.*;
 
 import nl.utwente.atelier.api.AtelierAPI;
 import nl.utwente.atelier.api.Authentication;
+import nl.utwente.atelier.api.ConnectionPool;
 import nl.utwente.atelier.exceptions.ConfigurationException;
 import nl.utwente.atelier.exceptions.CryptoException;
 
-import org.apache.http.impl.client.HttpClients;
-
 /** Servlet for Webhook requests, entrypoint of the application */
 public class Webhook extends HttpServlet {
     private WebhookHandler handler;
+    private ConnectionPool connectionPool;
+    private Authentication auth;
 
     public Webhook() throws IOException, CryptoException, ConfigurationException, URISyntaxException {
-        var httpClient = HttpClients.createDefault();
         var config = Configuration.readFromFile();
-        var auth = new Authentication(config, httpClient);
+        this.connectionPool = new ConnectionPool(config);
+        var httpClient = connectionPool.getClient();
+        this.auth = new Authentication(config, httpClient);
         var api = new AtelierAPI(config, auth, httpClient);
-        this.handler = new WebhookHandler(config, api);
+        this.handler = new WebhookHandler(config, api, connectionPool);
         System.out.println("Webhook started.");
     }
 
     public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
         handler.handleWebhook(request, response);
     }
+
+    @Override
+    public void destroy() {
+        handler.shutdown();
+        auth.close();
+        try {
+            connectionPool.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        super.destroy();
+    }
 }
\ No newline at end of file
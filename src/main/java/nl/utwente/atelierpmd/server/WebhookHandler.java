@@ -1,38 +1,160 @@
 package nl.utwente.atelierpmd.server;
 
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collections;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.*;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 
+import org.apache.http.HttpResponse;
+
 import nl.utwente.atelier.api.AtelierAPI;
+import nl.utwente.atelier.api.CommentPoster;
+import nl.utwente.atelier.api.FileBodyReader;
+import nl.utwente.atelier.api.ConnectionPool;
 import nl.utwente.processing.pmd.PMDException;
 
 import nl.utwente.atelier.exceptions.CryptoException;
+import nl.utwente.atelier.exceptions.FileTooLargeException;
+import nl.utwente.atelier.exceptions.StageException;
 import nl.utwente.atelier.pmd.AtelierPMDRenderer;
+import nl.utwente.atelierpmd.metrics.Metrics;
+import nl.utwente.atelierpmd.metrics.MetricsRegistry;
 import nl.utwente.processing.ProcessingFile;
 import nl.utwente.processing.ProcessingProject;
+import nl.utwente.processing.pmd.AnalysisCache;
+import nl.utwente.processing.pmd.AnalysisProfile;
 import nl.utwente.processing.pmd.PMDRunner;
 
 /** Handler for Webhook requests. It checks if the request is valid and handles supported events. */
 public class WebhookHandler {
-    private final String webhookSecret;
+    /** The job ID of a job that is not in the journal */
+    private static final long NO_JOB = 0;
+    /** The number of times a queued job is run when fetching or analysing its files fails, before it is given up */
+    private static final int MAX_ATTEMPTS = 3;
+    /** How long to wait before a failed job is run again, doubled after every attempt */
+    private static final long RETRY_DELAY_SECONDS = 30;
+
+    private final SignatureVerifier signatureVerifier;
     private final AtelierAPI api;
-    private final PMDRunner pmd = new PMDRunner();
+    private final PMDRunner pmd;
+    private final JobQueue queue;
+    private final Stage fetchStage;
+    private final Stage analysisStage;
+    private final CommentPoster poster;
+    private final ConnectionPool connectionPool;
+    private final SubmissionStore submissions;
+    /** Recent deliveries, to skip retried deliveries, or null if duplicates are handled again */
+    private final DeliveryCache deliveries;
+    /** Journal of the queued jobs, to run them again after a restart, or null if they are only kept in memory */
+    private final JobJournal journal;
+    /** Thread that queues the jobs of the journal that did not finish before the last stop, or null if there are none */
+    private Thread replayThread;
+    /** Queues failed jobs again after a delay, or null if webhooks are not queued */
+    private final ScheduledExecutorService retryScheduler;
+    private final FileBodyReader fileBodyReader;
+    private final int maxSubmissionBytes;
+    /** Profile of all analyses since the start, or null if profiling is disabled */
+    private final AnalysisProfile profile;
 
-    public WebhookHandler(Configuration config, AtelierAPI api) {
-        this.webhookSecret = config.getWebhookSecret();
+    public WebhookHandler(Configuration config, AtelierAPI api, ConnectionPool connectionPool) {
+        this.signatureVerifier = new SignatureVerifier(config.getWebhookSecret());
         this.api = api;
+        this.connectionPool = connectionPool;
+        this.queue = config.isAsyncIntake()
+            ? new JobQueue(config.getWorkerThreads(), config.getQueueCapacity())
+            : null;
+        this.retryScheduler = queue != null
+            ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "atelier-pmd-retry");
+                thread.setDaemon(true);
+                return thread;
+            })
+            : null;
+        this.fetchStage = new Stage("fetch", config.getFetchThreads(), config.getFetchQueueCapacity(),
+            config.getFetchTimeoutSeconds(), TimeUnit.SECONDS);
+        this.analysisStage = new Stage("analysis", config.getAnalysisThreads(), config.getAnalysisQueueCapacity(),
+            config.getAnalysisTimeoutSeconds(), TimeUnit.SECONDS);
+        this.poster = new CommentPoster(config.getCommentThreads(), config.getCommentsPerSubmission(),
+            config.getCommentTimeoutSeconds(), TimeUnit.SECONDS);
+        this.pmd = new PMDRunner(createAnalysisCache(config));
+        this.submissions = new SubmissionStore(config.getSubmissionCacheEntries(),
+            config.getSubmissionCacheMinutes(), TimeUnit.MINUTES);
+        this.deliveries = config.getDeliveryCacheEntries() > 0
+            ? new DeliveryCache(config.getDeliveryCacheEntries(), config.getDeliveryCacheMinutes(), TimeUnit.MINUTES)
+            : null;
+        this.fileBodyReader = new FileBodyReader(config.getMaxFileBytes());
+        this.maxSubmissionBytes = config.getMaxSubmissionBytes();
+        this.profile = config.isProfileAnalysis() ? new AnalysisProfile() : null;
+        this.journal = queue != null ? openJobJournal(config) : null;
+        registerGauges();
+        replayJournal();
+    }
+
+    /** Expose the state of the queue, the connection pool and the stored submissions as metrics */
+    private void registerGauges() {
+        var registry = MetricsRegistry.DEFAULT;
+        if (queue != null) {
+            registry.gauge("atelier_pmd_queue_depth", "Jobs waiting for a worker", queue::getQueueDepth);
+            registry.gauge("atelier_pmd_busy_workers", "Workers currently running a job", queue::getBusyWorkers);
+        }
+        registry.gauge("atelier_pmd_fetch_busy_threads", "Threads downloading files from Atelier",
+            fetchStage::getActiveThreads);
+        registry.gauge("atelier_pmd_analysis_busy_threads", "Threads analysing projects",
+            analysisStage::getActiveThreads);
+        registry.gauge("atelier_pmd_analysis_queue_depth", "Projects waiting for an analysis thread",
+            analysisStage::getQueueDepth);
+        registry.gauge("atelier_pmd_http_connections_leased", "Connections to Atelier in use",
+            () -> connectionPool.getStatistics().getLeased());
+        registry.gauge("atelier_pmd_http_connections_available", "Idle connections to Atelier in the pool",
+            () -> connectionPool.getStatistics().getAvailable());
+        registry.gauge("atelier_pmd_http_connections_pending", "Requests waiting for a connection to Atelier",
+            () -> connectionPool.getStatistics().getPending());
+        registry.gauge("atelier_pmd_stored_submissions", "Submissions kept for analysing changed files",
+            submissions::size);
+        if (journal != null) {
+            registry.gauge("atelier_pmd_journaled_jobs", "Queued jobs in the job journal that have not finished",
+                journal::getPendingJobs);
+        }
+        if (deliveries != null) {
+            registry.gauge("atelier_pmd_remembered_deliveries", "Webhook deliveries remembered to skip duplicates",
+                deliveries::size);
+        }
+    }
+
+    /** Create the cache for analysis results, or null if it is disabled */
+    private static AnalysisCache createAnalysisCache(Configuration config) {
+        if (config.getAnalysisCacheEntries() == 0)
+            return null;
+        var directory = config.getAnalysisCacheDirectory();
+        return new AnalysisCache(config.getAnalysisCacheEntries(),
+            directory != null ? Path.of(directory) : null, config.getAnalysisCacheDiskEntries());
+    }
+
+    /** Open the journal of queued jobs, or return null if it is disabled or cannot be opened */
+    private static JobJournal openJobJournal(Configuration config) {
+        var directory = config.getJobJournalDirectory();
+        if (directory == null)
+            return null;
+        try {
+            var journal = new JobJournal(Path.of(directory), JobJournal.DEFAULT_SEGMENT_BYTES);
+            System.out.println("Opened job journal; " + journal.describe());
+            return journal;
+        } catch (IOException e) {
+            System.out.println("Could not open the job journal in " + directory + ", queued jobs are kept in memory only: "
+                + e.getMessage());
+            return null;
+        }
     }
 
     /** Indicates that the request is not valid due to the given reason */
@@ -50,33 +172,34 @@ public class WebhookHandler {
         }
     }
 
-    /** Check that the request has the correct signature, corresponding to the WebhookSecret */
-    private void checkSignature(HttpServletRequest request, byte[] body) throws InvalidWebhookRequest, CryptoException {
+    /**
+     * Read the body of the request, checking that it has the correct signature, corresponding to the WebhookSecret.
+     * The body is only valid until the current thread reads the next request.
+     */
+    private SignatureVerifier.Body readSignedBody(HttpServletRequest request)
+            throws InvalidWebhookRequest, IOException, CryptoException {
         var signature = request.getHeader("X-Atelier-Signature");
         if (signature == null) {
             throw new InvalidWebhookRequest("No signature provided.");
         }
-
+        byte[] expectedSignature;
         try {
-            var secret = webhookSecret.getBytes();
-            var key = new SecretKeySpec(secret, "HmacSHA1");
-            var hmac = Mac.getInstance("HmacSHA1");
-            hmac.init(key);
-
-            var rawSignature = hmac.doFinal(body);
-            var computedSignature = Base64.getEncoder().encodeToString(rawSignature);
+            expectedSignature = Base64.getDecoder().decode(signature);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidWebhookRequest("Invalid signature.");
+        }
 
-            if (!computedSignature.equals(signature)) {
-                throw new InvalidWebhookRequest("Invalid signature.");
-            }
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new CryptoException(e);
+        var body = signatureVerifier.read(request.getInputStream(), request.getContentLength());
+        if (!body.hasSignature(expectedSignature)) {
+            throw new InvalidWebhookRequest("Invalid signature.");
         }
+        return body;
     }
 
     /** Handle an incoming Webhook request */
     public void handleWebhook(HttpServletRequest request, HttpServletResponse response) {
         System.out.println("Received new webhook request.");
+        var eventType = "unknown";
         try {
             // I'm sorry.
             // The inner catch handler may throw an IOException, which should be handled in
@@ -84,71 +207,393 @@ public class WebhookHandler {
             // try-catch inside the catch, with duplicated error-handling code.
             try {
                 checkUserAgent(request);
-                var rawBody = request.getInputStream().readAllBytes();
-                checkSignature(request, rawBody);
-                var body = new String(rawBody, "UTF-8");
-                var json = JsonParser.parseString(body);
+                var body = readSignedBody(request);
+                var json = JsonParser.parseReader(body.reader());
                 var event = json.getAsJsonObject().get("event").getAsString();
+                eventType = event;
                 var payload = json.getAsJsonObject().get("payload").getAsJsonObject();
-                switch (event) {
-                    case "submission":
-                        handleSubmission(payload);
-                        break;
-                    case "submission.file":
-                        handleFileSubmission(payload);
-                        break;
+                var delivery = deliveries != null && isSupportedEvent(event)
+                    ? DeliveryCache.key(event, payload, body.getSignature())
+                    : null;
+                if (delivery != null && !deliveries.claim(delivery)) {
+                    System.out.println("Skipped duplicate " + describeEvent(event, payload) + " event; " + deliveries.describe());
+                    response.setStatus(200);
+                    Metrics.WEBHOOKS.inc(event, "duplicate");
+                } else if (queue == null || !isSupportedEvent(event)) {
+                    handleDelivery(delivery, () -> handleEvent(event, payload));
+                    response.setStatus(200);
+                    Metrics.WEBHOOKS.inc(event, isSupportedEvent(event) ? "handled" : "ignored");
+                } else {
+                    var queued = false;
+                    try {
+                        // Journal the job before it is queued, so a worker cannot finish it before it is in the journal
+                        var job = appendJob(body);
+                        queued = queue.submit(describeEvent(event, payload),
+                            () -> handleQueuedEvent(delivery, job, event, payload, 1));
+                        if (queued) {
+                            System.out.println("Queued " + event + " event; " + queue.describe() + "; " + connectionPool.describe());
+                            response.setStatus(202);
+                            Metrics.WEBHOOKS.inc(event, "queued");
+                        } else {
+                            System.out.println("Refused " + event + " event, the queue is full; " + queue.describe() + "; " + connectionPool.describe());
+                            completeJob(job);
+                            response.setStatus(429);
+                            response.setHeader("Retry-After", Long.toString(queue.estimateRetryAfterSeconds()));
+                            Metrics.WEBHOOKS.inc(event, "refused");
+                        }
+                    } finally {
+                        // A delivery that was not queued is forgotten, so it is handled when Atelier retries it
+                        if (!queued && delivery != null) {
+                            deliveries.release(delivery);
+                        }
+                    }
                 }
-                response.setStatus(200);
             } catch (InvalidWebhookRequest e) {
                 System.out.println(e.getMessage());
                 response.setStatus(400);
+                Metrics.WEBHOOKS.inc(eventType, "invalid");
                 var writer = response.getWriter();
                 writer.println(e.getMessage());
                 writer.flush();
                 writer.close();
             }
-        } catch (IOException | CryptoException | PMDException e) {
+        } catch (IOException | CryptoException | PMDException | StageException e) {
             response.setStatus(500);
+            Metrics.WEBHOOKS.inc(eventType, "failed");
+            e.printStackTrace();
+        }
+    }
+
+    /** Check if the event is one we act on, others are acknowledged without doing any work */
+    private boolean isSupportedEvent(String event) {
+        return event.equals("submission") || event.equals("submission.file");
+    }
+
+    /** Handle a verified event of one of the supported types */
+    private void handleEvent(String event, JsonObject payload) throws PMDException, StageException {
+        switch (event) {
+            case "submission":
+                handleSubmission(payload);
+                break;
+            case "submission.file":
+                handleFileSubmission(payload);
+                break;
+        }
+    }
+
+    /** Short description of an event, for logging */
+    private String describeEvent(String event, JsonObject payload) {
+        var id = payload.get("ID");
+        return id == null ? event : event + " " + id.getAsString();
+    }
+
+    /** Handling of an event, which may fail */
+    private interface EventHandling {
+        void run() throws PMDException, StageException;
+    }
+
+    /**
+     * Handle a claimed delivery. When handling fails, the delivery is released, so it is handled again when Atelier
+     * retries it.
+     * @param delivery the key of the delivery in the delivery cache, or null if it is not in the cache
+     */
+    private void handleDelivery(String delivery, EventHandling handling) throws PMDException, StageException {
+        var handled = false;
+        try {
+            handling.run();
+            handled = true;
+        } finally {
+            if (delivery != null) {
+                if (handled) {
+                    deliveries.complete(delivery);
+                } else {
+                    deliveries.release(delivery);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle an event on a worker thread, where there is no response left to report failures on. When fetching or
+     * analysing the files fails, the job is queued again after a delay, and when the last attempt fails as well, the
+     * student is told that the submission was not checked. The job is marked as finished in the journal when it is
+     * done or given up, but not while it waits for another attempt or when it was interrupted because the
+     * application stops.
+     * @param job the ID of the job in the journal, or NO_JOB if it is not in the journal
+     * @param attempt the number of the attempt, starting at 1
+     */
+    private void handleQueuedEvent(String delivery, long job, String event, JsonObject payload, int attempt) {
+        var handled = false;
+        var retrying = false;
+        try {
+            handleEvent(event, payload);
+            handled = true;
+        } catch (StageException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                System.out.println("Stopped handling queued " + event + " event: " + e.getMessage());
+            } else if (attempt < MAX_ATTEMPTS) {
+                var delay = RETRY_DELAY_SECONDS << (attempt - 1);
+                System.out.printf("Failed to handle queued %s event (attempt %d of %d), trying again in %d s: %s%n",
+                    event, attempt, MAX_ATTEMPTS, delay, e.getMessage());
+                // The delivery stays claimed and the job stays in the journal until the last attempt
+                retrying = true;
+                retryLater(delivery, job, event, payload, attempt + 1, delay);
+            } else {
+                System.out.printf("Failed to handle queued %s event (attempt %d of %d), giving up.%n",
+                    event, attempt, MAX_ATTEMPTS);
+                e.printStackTrace();
+                reportFailure(event, payload);
+            }
+        } catch (PMDException e) {
+            System.out.println("Failed to handle queued " + event + " event.");
             e.printStackTrace();
+        } finally {
+            if (!retrying) {
+                if (delivery != null) {
+                    if (handled) {
+                        deliveries.complete(delivery);
+                    } else {
+                        deliveries.release(delivery);
+                    }
+                }
+                if (!Thread.currentThread().isInterrupted()) {
+                    completeJob(job);
+                }
+            }
         }
     }
 
+    /**
+     * Queue a failed job again after a delay. When the queue is full by then, it waits until the queue is expected to
+     * have room. When the application stops in the meantime, the job runs again on the next start if it is in the
+     * journal.
+     */
+    private void retryLater(String delivery, long job, String event, JsonObject payload, int attempt, long delaySeconds) {
+        try {
+            retryScheduler.schedule(() -> {
+                if (queue.submit(describeEvent(event, payload) + " (attempt " + attempt + ")",
+                        () -> handleQueuedEvent(delivery, job, event, payload, attempt))) {
+                    System.out.println("Queued " + event + " event again; " + queue.describe());
+                } else {
+                    retryLater(delivery, job, event, payload, attempt, queue.estimateRetryAfterSeconds());
+                }
+            }, delaySeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Not queueing " + event + " event again, the application stops.");
+        }
+    }
+
+    /** Add a job to the journal, returning its ID, or NO_JOB if there is no journal or the job could not be added */
+    private long appendJob(SignatureVerifier.Body body) {
+        if (journal == null)
+            return NO_JOB;
+        try {
+            return journal.append(body.getBytes(), body.getLength());
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not add job to the job journal, it is kept in memory only: " + e.getMessage());
+            return NO_JOB;
+        }
+    }
+
+    /** Mark a job as finished in the journal */
+    private void completeJob(long job) {
+        if (job != NO_JOB) {
+            journal.complete(job);
+        }
+    }
+
+    /**
+     * Queue the jobs of the journal that did not finish before the application stopped, on a separate thread. When
+     * the queue is full, the thread waits until it has room again.
+     */
+    private void replayJournal() {
+        if (journal == null || journal.getUnfinishedJobs().isEmpty())
+            return;
+        replayThread = new Thread(() -> {
+            var jobs = journal.getUnfinishedJobs();
+            System.out.println("Queueing " + jobs.size() + " unfinished jobs from the job journal.");
+            try {
+                for (var job : jobs) {
+                    replayJob(job);
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Stopped queueing unfinished jobs from the job journal.");
+            }
+        }, "atelier-pmd-journal-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    private void replayJob(JobJournal.Job job) throws InterruptedException {
+        String event;
+        JsonObject payload;
+        SignatureVerifier.Body body;
+        try {
+            body = signatureVerifier.sign(job.getBody());
+            var json = JsonParser.parseReader(body.reader()).getAsJsonObject();
+            event = json.get("event").getAsString();
+            payload = json.get("payload").getAsJsonObject();
+        } catch (CryptoException | JsonParseException | IllegalStateException | NullPointerException e) {
+            System.out.println("Could not read job " + job.getId() + " from the job journal: " + e.getMessage());
+            journal.complete(job.getId());
+            return;
+        }
+
+        var delivery = deliveries != null ? DeliveryCache.key(event, payload, body.getSignature()) : null;
+        if (delivery != null && !deliveries.claim(delivery)) {
+            System.out.println("Skipped duplicate " + describeEvent(event, payload) + " event from the job journal.");
+            journal.complete(job.getId());
+            return;
+        }
+        try {
+            while (!queue.submit(describeEvent(event, payload),
+                    () -> handleQueuedEvent(delivery, job.getId(), event, payload, 1))) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(queue.estimateRetryAfterSeconds()));
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            if (delivery != null) {
+                deliveries.release(delivery);
+            }
+            throw e;
+        }
+        System.out.println("Queued " + event + " event from the job journal; " + queue.describe());
+    }
+
+    /**
+     * Stop the worker, stage and posting threads, letting the jobs that are already running finish. Then close the
+     * job journal and the class loader of the analysis. Jobs that did not finish are run again on the next start.
+     */
+    public void shutdown() {
+        if (replayThread != null) {
+            replayThread.interrupt();
+        }
+        if (retryScheduler != null) {
+            // Jobs waiting for another attempt are still in the journal, they run again on the next start
+            retryScheduler.shutdownNow();
+        }
+        if (queue != null) {
+            System.out.println("Shutting down job queue; " + queue.describe());
+            queue.shutdown();
+        }
+        if (journal != null) {
+            System.out.println("Closing job journal; " + journal.describe());
+            journal.close();
+        }
+        fetchStage.shutdown();
+        analysisStage.shutdown();
+        poster.shutdown();
+        pmd.close();
+        if (profile != null) {
+            profile.print(System.out, "Profile of all analyses");
+        }
+    }
+
+    /**
+     * Analyse a project on the analysis stage, and post the results from the current thread. The profile of the
+     * analysis is logged if profiling is enabled.
+     */
+    private void analyse(String submissionID, ProcessingProject project, AtelierPMDRenderer renderer)
+            throws PMDException, StageException {
+        var projectProfile = profile != null ? new AnalysisProfile() : null;
+        var report = analysisStage.run("Analysis of submission " + submissionID,
+            cancellation -> pmd.Analyse(project, projectProfile));
+        if (projectProfile != null) {
+            projectProfile.print(System.out, "Profile of submission " + submissionID);
+            profile.add(projectProfile);
+        }
+        pmd.Render(report, renderer);
+    }
+
+    /** Read the body of a file from Atelier, counting its size towards the budget of its submission */
+    private String readFile(String fileID, String fileName, HttpResponse res, FileBodyReader.Budget budget)
+            throws IOException {
+        if (res.getStatusLine().getStatusCode() < 400) {
+            return fileBodyReader.read(fileName, res.getEntity(), budget);
+        } else {
+            var message = String.format("Request for file %s returned status %d.", fileID, res.getStatusLine().getStatusCode());
+            System.out.println(message);
+            throw new IOException(message);
+        }
+    }
+
+    /** Tell the student that their submission was not checked, because it is too large */
+    private void reportTooLarge(String submissionID, FileTooLargeException e) {
+        System.out.printf("Not analysing submission %s: %s%n", submissionID, e.getMessage());
+        var message = e.isSubmissionLimit()
+            ? String.format("ZITA did not check this submission, because its files are larger than %d KB together.",
+                e.getLimit() / 1024)
+            : String.format("ZITA did not check this submission, because the file %s is larger than %d KB.",
+                e.getFileName(), e.getLimit() / 1024);
+        postNotice(submissionID, message, "size limit");
+    }
+
+    /** Tell the student that their submission was not checked, because downloading or analysing it kept failing */
+    private void reportFailure(String event, JsonObject payload) {
+        var submissionID = event.equals("submission")
+            ? payload.get("ID").getAsString()
+            : payload.get("references").getAsJsonObject().get("submissionID").getAsString();
+        postNotice(submissionID, "ZITA could not check this submission, because downloading or analysing its "
+            + "files failed. Please submit it again later.", "failure");
+    }
+
+    /** Post a public comment on a submission, which explains why the submission has no other comments */
+    private void postNotice(String submissionID, String message, String kind) {
+        var json = new JsonObject();
+        json.addProperty("submissionID", submissionID);
+        json.addProperty("visibility", "public");
+        json.addProperty("comment", message);
+        json.addProperty("automated", true);
+
+        var batch = poster.startBatch("submission " + submissionID);
+        batch.post(() -> api.postProjectComment(submissionID, json, res -> {
+            System.out.printf("Posted %s comment on submission %s, got status %d%n", kind, submissionID,
+                res.getStatusLine().getStatusCode());
+            return null;
+        }));
+        batch.await();
+    }
+
     /** Handle events of type 'submission' */
-    private void handleSubmission(JsonObject submission) throws CryptoException, IOException, PMDException {
+    private void handleSubmission(JsonObject submission) throws PMDException, StageException {
         var submissionID = submission.get("ID").getAsString();
         System.out.printf("Handling submission %s%n", submissionID);
+
+        // Download all files at the same time. If one of them fails, the others are cancelled, as the submission
+        // cannot be analysed without it.
+        var budget = new FileBodyReader.Budget(maxSubmissionBytes);
+        var fetches = new ArrayList<Stage.Task<ProcessingFile>>();
+        for (var element : submission.get("files").getAsJsonArray()) {
+            var file = element.getAsJsonObject();
+            var fileName = file.get("name").getAsString();
+            if (fileName.endsWith(".pde")) {
+                var fileID = file.get("ID").getAsString();
+                fetches.add(cancellation -> api.getFile(fileID,
+                    res -> new ProcessingFile(fileID, fileName, readFile(fileID, fileName, res, budget)), cancellation));
+            }
+        }
+        List<ProcessingFile> files;
         try {
-            var files = StreamSupport.stream(submission.get("files").getAsJsonArray().spliterator(), true)
-                .map(file -> file.getAsJsonObject())
-                .filter(file -> file.get("name").getAsString().endsWith(".pde"))
-                .map(file -> {
-                    try {
-                        var fileName = file.get("name").getAsString();
-                        var fileID = file.get("ID").getAsString();
-                        var res = api.getFile(fileID);
-                        if (res.getStatusLine().getStatusCode() < 400) {
-                            var fileContent = new String(res.getEntity().getContent().readAllBytes());
-                            return new ProcessingFile(fileID, fileName, fileContent);
-                        } else {
-                            var message = String.format("Request for file %s returned status %d.", fileID, res.getStatusLine().getStatusCode());
-                            System.out.printf(message);
-                            throw new IOException(message);
-                        }
-                    } catch (IOException | CryptoException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                })
-                .collect(Collectors.toList());
-            var project = new ProcessingProject(files);
-            var renderer = new AtelierPMDRenderer(submissionID, project, api);
-            pmd.Run(project, renderer);
-        } catch (RuntimeException ex) {
+            files = fetchStage.runAll("Fetching the files of submission " + submissionID, fetches);
+        } catch (StageException e) {
+            if (!(e.getCause() instanceof FileTooLargeException)) throw e;
+            reportTooLarge(submissionID, (FileTooLargeException) e.getCause());
+            return;
+        }
 
+        var project = new ProcessingProject(files);
+        var submissionState = submissions.getOrCreate(submissionID);
+        synchronized (submissionState) {
+            // Atelier may send the same submission again, do not repeat the comments in that case
+            var renderer = new AtelierPMDRenderer(submissionID, project, api, poster,
+                submissionState.isAnalysed() ? submissionState.getPostedViolations() : null);
+            analyse(submissionID, project, renderer);
+            submissionState.setFiles(files);
+            submissionState.addPostedViolations(renderer.getViolationKeys());
         }
     }
 
     /** Handle events of type 'submission.file' */
-    private void handleFileSubmission(JsonObject file) throws CryptoException, IOException, PMDException {
+    private void handleFileSubmission(JsonObject file) throws PMDException, StageException {
         var fileName = file.get("name").getAsString();
         // We only handle processing files, so restrict to those
         if (fileName.endsWith(".pde")) {
@@ -156,16 +601,32 @@ public class WebhookHandler {
             var submissionID = file.get("references").getAsJsonObject().get("submissionID").getAsString();
             System.out.printf("Processing %s (ID: %s)%n", fileName, fileID);
 
-            var res = api.getFile(fileID);
-            if (res.getStatusLine().getStatusCode() < 400) {
-                var fileContent = new String(res.getEntity().getContent().readAllBytes());
-                var files = Collections.singletonList(new ProcessingFile(fileID, fileName, fileContent));
+            var budget = new FileBodyReader.Budget(maxSubmissionBytes);
+            String fileContent;
+            try {
+                fileContent = fetchStage.run("Fetching file " + fileID,
+                    cancellation -> api.getFile(fileID, res -> readFile(fileID, fileName, res, budget), cancellation));
+            } catch (StageException e) {
+                if (!(e.getCause() instanceof FileTooLargeException)) throw e;
+                reportTooLarge(submissionID, (FileTooLargeException) e.getCause());
+                return;
+            }
+            var submissionState = submissions.getOrCreate(submissionID);
+            synchronized (submissionState) {
+                // Analyse the file together with the other files of the submission, if we still have them.
+                // Only the changed file is converted again, and violations that were posted before are skipped.
+                var files = submissionState.withFile(new ProcessingFile(fileID, fileName, fileContent));
+                if (submissionState.isAnalysed()) {
+                    System.out.printf("Analysing %s together with %d other files of submission %s%n",
+                        fileName, files.size() - 1, submissionID);
+                }
                 var project = new ProcessingProject(files);
-                var renderer = new AtelierPMDRenderer(submissionID, project, api);
-                pmd.Run(project, renderer);
-            } else {
-                System.out.printf("Request for file %s returned status %d.", fileID, res.getStatusLine().getStatusCode());
+                var renderer = new AtelierPMDRenderer(submissionID, project, api, poster,
+                    submissionState.isAnalysed() ? submissionState.getPostedViolations() : null);
+                analyse(submissionID, project, renderer);
+                submissionState.setFiles(files);
+                submissionState.addPostedViolations(renderer.getViolationKeys());
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -3,10 +3,16 @@ package nl.utwente.processing;
 /** A line in a file. This exists, because Java. */
 public class LineInFile {
     private final int line;
+    private final int column;
     private final ProcessingFile file;
 
     public LineInFile(final int line, final ProcessingFile file) {
+        this(line, 1, file);
+    }
+
+    public LineInFile(final int line, final int column, final ProcessingFile file) {
         this.line = line;
+        this.column = column;
         this.file = file;
     }
 
@@ -14,6 +20,11 @@ public class LineInFile {
         return line;
     }
 
+    /** The column on the line, numbered starting at 1, or 1 if only the line is known */
+    public int getColumn() {
+        return column;
+    }
+
     public ProcessingFile getFile() {
         return file;
     }
@@ -0,0 +1,208 @@
+package nl.utwente.processing;
+
+/**
+ * Converts Processing code to Java code that PMD can parse, in a single pass over the code. String and character
+ * literals and comments are copied as they are. In the rest of the code:
+ * <ul>
+ *     <li>the conversion functions {@code int(...)} and {@code float(...)} become {@code toInt(...)} and
+ *     {@code toFloat(...)},</li>
+ *     <li>color literals such as {@code #FF00FF} become hexadecimal literals, {@code 0xFF00FF},</li>
+ *     <li>import statements are blanked out.</li>
+ * </ul>
+ * Every file of a project is converted on its own, so the conversion of a file can be reused when another file of the
+ * project changes. Line breaks are never added or removed, and a {@link SourceMap} records where the conversion
+ * changed the length of a line, so positions in the Java code can be mapped back to the original code.
+ */
+public class ProcessingConverter {
+    // Based on the "hacks to make processing conversion work for java parsing" from Zita:
+    // https://github.com/swordiemen/zita/blob/master/src/main/java/nl/utwente/zita/parsing/Parser.java
+
+    /** Java code generated from Processing code, with the map back to the original code */
+    public static class Result {
+        private final String javaCode;
+        private final SourceMap sourceMap;
+
+        private Result(String javaCode, SourceMap sourceMap) {
+            this.javaCode = javaCode;
+            this.sourceMap = sourceMap;
+        }
+
+        public String getJavaCode() {
+            return javaCode;
+        }
+
+        public SourceMap getSourceMap() {
+            return sourceMap;
+        }
+    }
+
+    private final String code;
+    private final StringBuilder out;
+    private final SourceMap.Builder map = new SourceMap.Builder();
+    private int pos = 0;
+    private int depth = 0;
+    /** The last character of code that is not whitespace or a comment, or 0 at the start */
+    private char lastSignificant = 0;
+
+    private ProcessingConverter(String code) {
+        this.code = code;
+        this.out = new StringBuilder(code.length() + 64);
+    }
+
+    /** Roughly convert Processing code to Java code */
+    public static Result convert(String code) {
+        return new ProcessingConverter(code).run();
+    }
+
+    private Result run() {
+        map.anchor(0, 0);
+
+        while (pos < code.length()) {
+            var ch = code.charAt(pos);
+            if (ch == '/' && peek(1) == '/') {
+                copyLineComment();
+            } else if (ch == '/' && peek(1) == '*') {
+                copyBlockComment();
+            } else if (ch == '"' || ch == '\'') {
+                copyLiteral(ch);
+            } else if (Character.isJavaIdentifierStart(ch)) {
+                identifier();
+            } else if (Character.isDigit(ch)) {
+                copyNumber();
+            } else if (ch == '#' && isHexDigit(peek(1))) {
+                replace(1, "0x");
+                lastSignificant = 'x';
+            } else {
+                if (ch == '{') depth++;
+                else if (ch == '}') depth--;
+                if (!Character.isWhitespace(ch)) lastSignificant = ch;
+                out.append(ch);
+                pos++;
+            }
+        }
+
+        var javaCode = out.toString();
+        return new Result(javaCode, map.build(javaCode));
+    }
+
+    private char peek(int ahead) {
+        var index = pos + ahead;
+        return index < code.length() ? code.charAt(index) : 0;
+    }
+
+    private static boolean isHexDigit(char ch) {
+        return (ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F');
+    }
+
+    /** Replace the next length characters of the original code with the replacement */
+    private void replace(int length, String replacement) {
+        if (length != replacement.length()) {
+            map.anchor(out.length(), pos);
+            out.append(replacement);
+            pos += length;
+            map.anchor(out.length(), pos);
+        } else {
+            out.append(replacement);
+            pos += length;
+        }
+    }
+
+    private void copyUntil(int end) {
+        out.append(code, pos, end);
+        pos = end;
+    }
+
+    private void copyLineComment() {
+        var end = code.indexOf('\n', pos);
+        copyUntil(end < 0 ? code.length() : end);
+    }
+
+    private void copyBlockComment() {
+        var end = code.indexOf("*/", pos + 2);
+        copyUntil(end < 0 ? code.length() : end + 2);
+    }
+
+    /** Copy a string or character literal, stopping at the end of the line if it is not closed */
+    private void copyLiteral(char quote) {
+        var end = pos + 1;
+        while (end < code.length()) {
+            var ch = code.charAt(end);
+            if (ch == '\\') {
+                end += 2;
+                continue;
+            }
+            if (ch == quote) {
+                end++;
+                break;
+            }
+            if (ch == '\n') break;
+            end++;
+        }
+        copyUntil(Math.min(end, code.length()));
+        lastSignificant = quote;
+    }
+
+    /** Copy a number, so that a letter in it (like 1e5 or 0xff) is not read as an identifier */
+    private void copyNumber() {
+        var end = pos + 1;
+        while (end < code.length() && (Character.isLetterOrDigit(code.charAt(end)) || code.charAt(end) == '_'
+                || code.charAt(end) == '.')) {
+            end++;
+        }
+        copyUntil(end);
+        lastSignificant = '0';
+    }
+
+    private void identifier() {
+        var end = pos + 1;
+        while (end < code.length() && Character.isJavaIdentifierPart(code.charAt(end))) {
+            end++;
+        }
+        var length = end - pos;
+
+        if ((isWord("int", length) || isWord("float", length)) && nextSignificant(end) == '(') {
+            // Processing's conversion functions, int(x) and float(x), named like the primitive types
+            replace(length, length == 3 ? "toInt" : "toFloat");
+        } else if (isWord("import", length) && depth == 0
+                && (lastSignificant == 0 || lastSignificant == ';' || lastSignificant == '}')
+                && blankImport()) {
+            return;
+        } else {
+            copyUntil(end);
+        }
+        lastSignificant = 'a';
+    }
+
+    /** Whether the identifier at the current position, with the given length, is the word */
+    private boolean isWord(String word, int length) {
+        return length == word.length() && code.startsWith(word, pos);
+    }
+
+    /** The first character from the given offset that is not whitespace */
+    private char nextSignificant(int from) {
+        for (int i = from; i < code.length(); i++) {
+            if (!Character.isWhitespace(code.charAt(i))) return code.charAt(i);
+        }
+        return 0;
+    }
+
+    /**
+     * Replace an import statement with spaces, so the columns of the rest of the code stay the same. Only statements
+     * that end on the same line are removed.
+     * @return false if this is not a complete import statement, and nothing was replaced
+     */
+    private boolean blankImport() {
+        var end = pos;
+        while (end < code.length() && code.charAt(end) != ';' && code.charAt(end) != '\n') {
+            end++;
+        }
+        if (end >= code.length() || code.charAt(end) != ';')
+            return false;
+        end++;
+        for (int i = pos; i < end; i++) {
+            out.append(code.charAt(i) == '\t' ? '\t' : ' ');
+        }
+        pos = end;
+        return true;
+    }
+}
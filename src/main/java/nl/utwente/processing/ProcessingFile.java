@@ -1,15 +1,36 @@
 package nl.utwente.processing;
 
+import java.util.Arrays;
+
 /** Helper class to store information about a file */
 public class ProcessingFile {
     private final String id;
     private final String name;
     private final String content;
+    /** Offset in the content of the first character of every line */
+    private final int[] lineStarts;
+    /** The content converted to Java, which does not change when other files of the project change */
+    private final ProcessingConverter.Result javaContent;
 
     public ProcessingFile(final String id, final String name, final String content) {
         this.id = id;
         this.name = name;
         this.content = content;
+        this.lineStarts = findLineStarts(content);
+        this.javaContent = ProcessingConverter.convert(content);
+    }
+
+    private static int[] findLineStarts(String content) {
+        var count = 1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n') count++;
+        }
+        var starts = new int[count];
+        var line = 1;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n') starts[line++] = i + 1;
+        }
+        return starts;
     }
     
     public String getId() {
@@ -23,4 +44,39 @@ public class ProcessingFile {
     public String getContent() {
         return content;
     }
+
+    /** The content of this file converted to Java, with the map back to the content */
+    ProcessingConverter.Result getJavaContent() {
+        return javaContent;
+    }
+
+    /** The number of lines in this file, including the (possibly empty) line after the last line break */
+    public int getLineCount() {
+        return lineStarts.length;
+    }
+
+    /** Get a single line of this file, without its line break. Lines are numbered starting at 1. */
+    public String getLine(int line) {
+        if (line < 1 || line > lineStarts.length)
+            throw new IndexOutOfBoundsException(line);
+        var start = lineStarts[line - 1];
+        var end = line < lineStarts.length ? lineStarts[line] - 1 : content.length();
+        if (end > start && content.charAt(end - 1) == '\r')
+            end--;
+        return content.substring(start, end);
+    }
+
+    /** Get the line that contains an offset in the content, numbered starting at 1 */
+    int getLineOfOffset(int offset) {
+        if (offset < 0 || offset > content.length())
+            throw new IndexOutOfBoundsException(offset);
+        var index = Arrays.binarySearch(lineStarts, offset);
+        // Not an exact match gives -(insertion point) - 1, the line before the insertion point contains the offset
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /** Get the offset in the content of the first character of a line, numbered starting at 1 */
+    int getLineStart(int line) {
+        return lineStarts[line - 1];
+    }
 }
\ No newline at end of file
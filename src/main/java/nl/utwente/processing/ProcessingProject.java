@@ -1,5 +1,6 @@
 package nl.utwente.processing;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -8,28 +9,51 @@ import java.util.stream.Collectors;
 
 /** Helper class to deal with Processing code in PMD */
 public class ProcessingProject {
-    private static String START_JAVA_CODE = "public class Processing {\r\n";
-    private static String END_JAVA_CODE = "\r\n}";
+    // Processing allows methods and fields outside of a class, so the code is wrapped in one
+    private static final String START_JAVA_CODE = "public class Processing {\r\n";
+    private static final String END_JAVA_CODE = "\r\n}";
 
-    private List<ProcessingFile> files;
-    
-    public ProcessingProject(List<ProcessingFile> files) {
-        this.files = files;
-    }
+    private final List<ProcessingFile> files;
+    /** The line in the combined project code on which each file starts, in ascending order */
+    private final int[] fileStartLines;
+    /** The offset in the combined project code at which each file starts, in ascending order */
+    private final int[] fileStartOffsets;
+    /** The number of lines in the combined project code */
+    private final int projectLineCount;
+    /** The combined project code converted to Java */
+    private final String javaCode;
+    /** Map from the Java code back to the combined project code */
+    private final SourceMap sourceMap;
 
-    private long countChars(char ch, String str) {
-        return str.chars().filter(x -> x == ch).count();
-    }
+    public ProcessingProject(List<ProcessingFile> files) {
+        this.files = List.copyOf(files);
+        this.fileStartLines = new int[this.files.size()];
+        this.fileStartOffsets = new int[this.files.size()];
+        var line = 1;
+        var offset = 0;
+        for (int i = 0; i < this.files.size(); i++) {
+            fileStartLines[i] = line;
+            fileStartOffsets[i] = offset;
+            line += this.files.get(i).getLineCount();
+            // Files are joined by a single line break
+            offset += this.files.get(i).getContent().length() + 1;
+        }
+        this.projectLineCount = line - 1;
 
-    /** Roughly convert Processing code to Java code */
-    private String toJava(String code) {
-        code = START_JAVA_CODE + code + END_JAVA_CODE;
-        code = code.replaceAll("\\bint\\s*\\(", "toInt(");
-        code = code.replaceAll("\\bfloat\\s*\\(", "toFloat(");
-        code = code.replace(" = #", " = 0x");
-        code = code.replace("(#", "(0x");
-        code = code.replaceAll("import(.)*;", "");
-        return code;
+        // Every file is converted on its own, the converted files only need to be joined
+        var java = new StringBuilder(START_JAVA_CODE);
+        var map = new SourceMap.Builder();
+        map.anchor(0, -1);
+        for (int i = 0; i < this.files.size(); i++) {
+            if (i > 0) java.append('\n');
+            var javaContent = this.files.get(i).getJavaContent();
+            map.append(javaContent.getSourceMap(), java.length(), fileStartOffsets[i]);
+            java.append(javaContent.getJavaCode());
+        }
+        map.anchor(java.length(), -1);
+        java.append(END_JAVA_CODE);
+        this.javaCode = java.toString();
+        this.sourceMap = map.build(javaCode);
     }
 
     /** Combine all Processing files into a single string */
@@ -39,29 +63,46 @@ public class ProcessingProject {
 
     /** Find the file and line number from the combined project string */
     public LineInFile mapProjectLineNumber(int line) {
-        var l = line;
-        if (l == 0)
-            throw new IndexOutOfBoundsException(l);
-        for (int i = 0; i < files.size(); i++) {
-            var fileSize = countChars('\n', files.get(i).getContent()) + 1;
-            if (fileSize >= l) {
-                return new LineInFile(l, files.get(i));
-            } else {
-                l -= fileSize;
-            }
-        }
+        if (line < 1 || line > projectLineCount)
+            throw new IndexOutOfBoundsException(line);
+        var index = Arrays.binarySearch(fileStartLines, line);
+        // Not an exact match gives -(insertion point) - 1, the file before the insertion point contains the line
+        if (index < 0)
+            index = -index - 2;
+        return new LineInFile(line - fileStartLines[index] + 1, files.get(index));
+    }
 
-        throw new IndexOutOfBoundsException(line);
+    /** Find the file, line and column of an offset in the combined project string */
+    public LineInFile mapProjectOffset(int offset) {
+        if (offset < 0 || files.isEmpty())
+            throw new IndexOutOfBoundsException(offset);
+        var index = Arrays.binarySearch(fileStartOffsets, offset);
+        if (index < 0)
+            index = -index - 2;
+        var file = files.get(index);
+        var fileOffset = offset - fileStartOffsets[index];
+        var line = file.getLineOfOffset(fileOffset);
+        return new LineInFile(line, fileOffset - file.getLineStart(line) + 1, file);
     }
 
     /** Get the full project code converted to Java */
     public String getJavaProjectCode() {
-        return toJava(getProjectCode());
+        return javaCode;
     }
 
     /** Map line in Java code back to Processing file and line */
     public LineInFile mapJavaProjectLineNumber(int line) {
-        var projectLine = line - (int)countChars('\n', START_JAVA_CODE);
-        return mapProjectLineNumber(projectLine);
+        return mapJavaProjectPosition(line, 1);
+    }
+
+    /**
+     * Map a line and column in Java code, as reported by PMD, back to the Processing file, line and column.
+     * @throws IndexOutOfBoundsException if the position is in code that was added by the conversion to Java
+     */
+    public LineInFile mapJavaProjectPosition(int line, int column) {
+        var offset = sourceMap.toOriginalOffset(sourceMap.toJavaOffset(line, column));
+        if (offset < 0)
+            throw new IndexOutOfBoundsException("Line " + line + " is not in a source file");
+        return mapProjectOffset(offset);
     }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+package nl.utwente.processing;
+
+import java.util.Arrays;
+
+/**
+ * Maps offsets in the Java code generated from a Processing project back to offsets in the original project code.
+ * The mapping is stored as a sorted list of anchors. From every anchor the Java and original code advance together,
+ * until the next anchor, so only places where the conversion changed the length of the code need an anchor.
+ */
+public class SourceMap {
+    private final int[] javaOffsets;
+    private final int[] originalOffsets;
+    private final int[] javaLineStarts;
+    private final int javaLength;
+
+    SourceMap(int[] javaOffsets, int[] originalOffsets, int[] javaLineStarts, int javaLength) {
+        this.javaOffsets = javaOffsets;
+        this.originalOffsets = originalOffsets;
+        this.javaLineStarts = javaLineStarts;
+        this.javaLength = javaLength;
+    }
+
+    /**
+     * Get the offset in the Java code of a line and column, as reported by PMD. Both are numbered starting at 1,
+     * and a tab counts as a single column.
+     */
+    public int toJavaOffset(int line, int column) {
+        if (line < 1 || line > javaLineStarts.length)
+            throw new IndexOutOfBoundsException(line);
+        var lineEnd = line < javaLineStarts.length ? javaLineStarts[line] - 1 : javaLength;
+        return Math.min(javaLineStarts[line - 1] + Math.max(column, 1) - 1, lineEnd);
+    }
+
+    /**
+     * Map an offset in the Java code to the offset in the original code it was generated from.
+     * @return the original offset, or -1 if the Java code at this offset was added by the conversion
+     */
+    public int toOriginalOffset(int javaOffset) {
+        var index = Arrays.binarySearch(javaOffsets, javaOffset);
+        // Not an exact match gives -(insertion point) - 1, the anchor before the insertion point applies
+        if (index < 0)
+            index = -index - 2;
+        if (index < 0 || originalOffsets[index] < 0)
+            return -1;
+        var offset = originalOffsets[index] + (javaOffset - javaOffsets[index]);
+        // Code that was replaced by something longer maps to the last character of the original
+        if (index + 1 < originalOffsets.length && originalOffsets[index + 1] >= 0)
+            offset = Math.min(offset, Math.max(originalOffsets[index], originalOffsets[index + 1] - 1));
+        return offset;
+    }
+
+    /** Builder that collects anchors in the order in which the Java code is generated */
+    static class Builder {
+        private int[] javaOffsets = new int[16];
+        private int[] originalOffsets = new int[16];
+        private int size = 0;
+
+        /**
+         * Mark that the Java code from javaOffset on is generated from the original code at originalOffset,
+         * or is not generated from original code at all if originalOffset is -1
+         */
+        void anchor(int javaOffset, int originalOffset) {
+            if (size > 0 && javaOffsets[size - 1] == javaOffset) {
+                originalOffsets[size - 1] = originalOffset;
+                return;
+            }
+            if (size == javaOffsets.length) {
+                javaOffsets = Arrays.copyOf(javaOffsets, size * 2);
+                originalOffsets = Arrays.copyOf(originalOffsets, size * 2);
+            }
+            javaOffsets[size] = javaOffset;
+            originalOffsets[size] = originalOffset;
+            size++;
+        }
+
+        /**
+         * Add the anchors of a map for a part of the code, which starts at the given offsets in the Java and the
+         * original code
+         */
+        void append(SourceMap part, int javaStart, int originalStart) {
+            for (int i = 0; i < part.javaOffsets.length; i++) {
+                var original = part.originalOffsets[i];
+                anchor(javaStart + part.javaOffsets[i], original < 0 ? -1 : originalStart + original);
+            }
+        }
+
+        SourceMap build(CharSequence javaCode) {
+            var lines = 1;
+            for (int i = 0; i < javaCode.length(); i++) {
+                if (javaCode.charAt(i) == '\n') lines++;
+            }
+            var lineStarts = new int[lines];
+            var line = 1;
+            for (int i = 0; i < javaCode.length(); i++) {
+                if (javaCode.charAt(i) == '\n') lineStarts[line++] = i + 1;
+            }
+            return new SourceMap(Arrays.copyOf(javaOffsets, size), Arrays.copyOf(originalOffsets, size),
+                lineStarts, javaCode.length());
+        }
+    }
+}
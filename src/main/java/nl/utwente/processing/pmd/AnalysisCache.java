@@ -0,0 +1,401 @@
+package nl.utwente.processing.pmd;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import net.sourceforge.pmd.Rule;
+import net.sourceforge.pmd.RuleSets;
+import net.sourceforge.pmd.RuleViolation;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Cache for the violations PMD finds in a piece of code. Entries are keyed by a hash of the code and a fingerprint
+ * of the rules that were applied, so the same code checked by the same rules always finds the same entry. The least
+ * recently used entries are evicted once the cache is full. Optionally, entries are also stored as files in a
+ * directory, so they survive a restart. Suppressed violations are not reported, so they are not stored either.
+ */
+public class AnalysisCache {
+    /** Hash of the code of the custom rules and the type resolution, computed once */
+    private static final String CODE_FINGERPRINT = codeFingerprint();
+
+    private final int maxEntries;
+    private final Path directory;
+    private final int maxDiskEntries;
+    /** Entries in memory, from least to most recently used */
+    private final Map<String, List<CachedViolation>> entries;
+    /** Keys of the entries on disk, from least to most recently used */
+    private final Map<String, Path> diskEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** A violation restored from the cache, which is reported exactly like the original violation */
+    private static class CachedViolation implements RuleViolation {
+        private final Rule rule;
+        private final String description;
+        private final String filename;
+        private final int beginLine, beginColumn, endLine, endColumn;
+        private final String packageName, className, methodName, variableName;
+
+        private CachedViolation(Rule rule, String description, String filename,
+                                int beginLine, int beginColumn, int endLine, int endColumn,
+                                String packageName, String className, String methodName, String variableName) {
+            this.rule = rule;
+            this.description = description;
+            this.filename = filename;
+            this.beginLine = beginLine;
+            this.beginColumn = beginColumn;
+            this.endLine = endLine;
+            this.endColumn = endColumn;
+            this.packageName = packageName;
+            this.className = className;
+            this.methodName = methodName;
+            this.variableName = variableName;
+        }
+
+        private static CachedViolation copyOf(RuleViolation violation, Rule rule) {
+            return new CachedViolation(rule, violation.getDescription(), violation.getFilename(),
+                violation.getBeginLine(), violation.getBeginColumn(), violation.getEndLine(), violation.getEndColumn(),
+                violation.getPackageName(), violation.getClassName(), violation.getMethodName(),
+                violation.getVariableName());
+        }
+
+        private JsonObject toJson() {
+            var json = new JsonObject();
+            json.addProperty("rule", rule.getName());
+            json.addProperty("description", description);
+            json.addProperty("filename", filename);
+            json.addProperty("beginLine", beginLine);
+            json.addProperty("beginColumn", beginColumn);
+            json.addProperty("endLine", endLine);
+            json.addProperty("endColumn", endColumn);
+            json.addProperty("packageName", packageName);
+            json.addProperty("className", className);
+            json.addProperty("methodName", methodName);
+            json.addProperty("variableName", variableName);
+            return json;
+        }
+
+        private static CachedViolation fromJson(JsonObject json, Rule rule) {
+            return new CachedViolation(rule, getString(json, "description"), getString(json, "filename"),
+                json.get("beginLine").getAsInt(), json.get("beginColumn").getAsInt(),
+                json.get("endLine").getAsInt(), json.get("endColumn").getAsInt(),
+                getString(json, "packageName"), getString(json, "className"),
+                getString(json, "methodName"), getString(json, "variableName"));
+        }
+
+        private static String getString(JsonObject json, String field) {
+            return json.has(field) && !json.get(field).isJsonNull() ? json.get(field).getAsString() : null;
+        }
+
+        @Override public Rule getRule() { return rule; }
+        @Override public String getDescription() { return description; }
+        @Override public boolean isSuppressed() { return false; }
+        @Override public String getFilename() { return filename; }
+        @Override public int getBeginLine() { return beginLine; }
+        @Override public int getBeginColumn() { return beginColumn; }
+        @Override public int getEndLine() { return endLine; }
+        @Override public int getEndColumn() { return endColumn; }
+        @Override public String getPackageName() { return packageName; }
+        @Override public String getClassName() { return className; }
+        @Override public String getMethodName() { return methodName; }
+        @Override public String getVariableName() { return variableName; }
+    }
+
+    /**
+     * Create a cache that only keeps entries in memory
+     * @param maxEntries the maximum number of entries in memory
+     */
+    public AnalysisCache(int maxEntries) {
+        this(maxEntries, null, 0);
+    }
+
+    /**
+     * Create a new cache
+     * @param maxEntries the maximum number of entries in memory
+     * @param directory the directory to store entries in, or null to only keep entries in memory
+     * @param maxDiskEntries the maximum number of entries in the directory
+     */
+    public AnalysisCache(int maxEntries, Path directory, int maxDiskEntries) {
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+        this.maxDiskEntries = maxDiskEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<CachedViolation>> eldest) {
+                return size() > AnalysisCache.this.maxEntries;
+            }
+        };
+        this.diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+        if (directory != null) {
+            loadDiskIndex();
+        }
+    }
+
+    /** Find the entries that were stored in the directory before, oldest first */
+    private void loadDiskIndex() {
+        try {
+            Files.createDirectories(directory);
+            try (var files = Files.list(directory)) {
+                var found = files
+                    .filter(file -> file.getFileName().toString().endsWith(".json"))
+                    .sorted(Comparator.comparing(AnalysisCache::lastModified))
+                    .collect(Collectors.toList());
+                for (var file : found) {
+                    var name = file.getFileName().toString();
+                    diskEntries.put(name.substring(0, name.length() - ".json".length()), file);
+                }
+            }
+            System.out.println("Found " + diskEntries.size() + " cached analysis results in " + directory);
+        } catch (IOException e) {
+            System.out.println("Could not read the analysis cache directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Get the key under which the results for a piece of code are stored. Line breaks are normalized first, as they
+     * do not change the lines and columns PMD reports.
+     * @param fingerprint a description of the rules that are applied, see {@link #fingerprint(RuleSets)}
+     */
+    public static String key(String code, String fingerprint) {
+        var digest = sha256();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(code.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Describe the rules in a set of rulesets, including the values of their properties, so that a change to any
+     * rule (or to PMD itself) results in a different description. The code of the custom rules and of the type
+     * resolution is part of the description as well, see {@link #codeFingerprint()}.
+     */
+    public static String fingerprint(RuleSets ruleSets) {
+        var rules = new ArrayList<String>();
+        for (var rule : ruleSets.getAllRules()) {
+            var properties = rule.getPropertiesByPropertyDescriptor().entrySet().stream()
+                .map(property -> property.getKey().name() + "=" + property.getValue())
+                .sorted()
+                .collect(Collectors.joining(","));
+            rules.add(rule.getName() + ":" + rule.getRuleClass() + ":" + rule.getLanguage().getTerseName() + ":"
+                + rule.getPriority() + ":" + rule.getMessage() + ":" + properties);
+        }
+        Collections.sort(rules);
+        return net.sourceforge.pmd.PMDVersion.VERSION + "\n" + CODE_FINGERPRINT + "\n" + String.join("\n", rules);
+    }
+
+    /**
+     * Hash the classes and rulesets of the analysis, which are in the nl.utwente.processing packages and the
+     * rulesets directory of the application. The version of the application is not changed for every deploy, so
+     * the classes themselves are hashed. When they cannot be read, a random value is used, so results stored on
+     * disk by another build are never used.
+     */
+    private static String codeFingerprint() {
+        var digest = sha256();
+        try {
+            var location = Path.of(AnalysisCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(location)) {
+                hashFiles(location, digest);
+            } else {
+                try (var jar = FileSystems.newFileSystem(location, (ClassLoader) null)) {
+                    hashFiles(jar.getPath("/"), digest);
+                }
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            System.out.println("Could not hash the classes of the analysis, cached results on disk are not used: "
+                + e.getMessage());
+            return UUID.randomUUID().toString();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void hashFiles(Path root, MessageDigest digest) throws IOException {
+        for (var directory : List.of("nl/utwente/processing", "rulesets")) {
+            var start = root.resolve(directory);
+            if (!Files.isDirectory(start)) {
+                throw new IOException(start + " is not a directory");
+            }
+            List<Path> files;
+            try (var walk = Files.walk(start)) {
+                files = walk.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(file -> root.relativize(file).toString()))
+                    .collect(Collectors.toList());
+            }
+            for (var file : files) {
+                digest.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(file));
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        var hex = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Get the violations stored for a key
+     * @param ruleSets the rules that were applied, used to restore the rule of every violation
+     * @return the violations, or null if there is no entry for the key
+     */
+    public List<RuleViolation> get(String key, RuleSets ruleSets) {
+        List<CachedViolation> violations;
+        synchronized (entries) {
+            violations = entries.get(key);
+        }
+        if (violations == null && directory != null) {
+            violations = readFromDisk(key, ruleSets);
+            if (violations != null) {
+                synchronized (entries) {
+                    entries.put(key, violations);
+                }
+            }
+        }
+        if (violations == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * Store the violations found for a key
+     * @param ruleSets the rules that were applied, the cache refers to these rules instead of the rules that were
+     *                 attached to the violations
+     */
+    public void put(String key, List<RuleViolation> violations, RuleSets ruleSets) {
+        var cached = new ArrayList<CachedViolation>(violations.size());
+        for (var violation : violations) {
+            var rule = ruleSets.getRuleByName(violation.getRule().getName());
+            if (rule == null) return;
+            cached.add(CachedViolation.copyOf(violation, rule));
+        }
+        synchronized (entries) {
+            entries.put(key, cached);
+        }
+        if (directory != null) {
+            writeToDisk(key, cached);
+        }
+    }
+
+    private List<CachedViolation> readFromDisk(String key, RuleSets ruleSets) {
+        Path file;
+        synchronized (diskEntries) {
+            file = diskEntries.get(key);
+        }
+        if (file == null) return null;
+        try {
+            var json = JsonParser.parseString(Files.readString(file)).getAsJsonArray();
+            var violations = new ArrayList<CachedViolation>(json.size());
+            for (var element : json) {
+                var violation = element.getAsJsonObject();
+                var rule = ruleSets.getRuleByName(violation.get("rule").getAsString());
+                if (rule == null) return null;
+                violations.add(CachedViolation.fromJson(violation, rule));
+            }
+            // Mark the file as recently used, so it is evicted last, also after a restart
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return violations;
+        } catch (IOException | JsonParseException | IllegalStateException | NullPointerException e) {
+            System.out.println("Could not read cached analysis result " + file + ": " + e.getMessage());
+            synchronized (diskEntries) {
+                diskEntries.remove(key);
+            }
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, List<CachedViolation> violations) {
+        var json = new JsonArray();
+        violations.forEach(violation -> json.add(violation.toJson()));
+        var file = directory.resolve(key + ".json");
+        try {
+            // Write to a temporary file first, so a crash never leaves a partial entry behind
+            var temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.writeString(temporary, json.toString());
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not store analysis result " + file + ": " + e.getMessage());
+            return;
+        }
+
+        var evicted = new ArrayList<Path>();
+        synchronized (diskEntries) {
+            diskEntries.put(key, file);
+            var iterator = diskEntries.values().iterator();
+            while (diskEntries.size() > maxDiskEntries && iterator.hasNext()) {
+                evicted.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        for (var old : evicted) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                System.out.println("Could not remove cached analysis result " + old + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Summary of the cache statistics, for logging */
+    public String describe() {
+        int size, diskSize;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        synchronized (diskEntries) {
+            diskSize = diskEntries.size();
+        }
+        return String.format("analysis cache hits %d, misses %d, entries %d/%d, on disk %d",
+            hits.get(), misses.get(), size, maxEntries, diskSize);
+    }
+}
@@ -0,0 +1,174 @@
+package nl.utwente.processing.pmd;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time and memory spent in the phases of an analysis and in each rule, for one or more projects. A profile is filled
+ * by {@link PMDRunner#Run(nl.utwente.processing.ProcessingProject, net.sourceforge.pmd.renderers.Renderer,
+ * AnalysisProfile)}, and profiles of several projects can be added together to get a profile of a whole corpus.
+ */
+public class AnalysisProfile {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+        THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            ? (com.sun.management.ThreadMXBean) THREADS
+            : null;
+
+    /** Measurements of a single phase or rule */
+    public static class Entry {
+        private final String kind;
+        private final String name;
+        private long runs;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private long nodes;
+
+        private Entry(String kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        /** Either "phase" or "rule" */
+        public String getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** The number of times the phase or rule was run */
+        public long getRuns() {
+            return runs;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /** CPU time of the thread running the analysis, or 0 if the JVM cannot measure it */
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        /** Bytes allocated by the thread running the analysis, or 0 if the JVM cannot measure it */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /** The number of AST nodes that were created or visited */
+        public long getNodes() {
+            return nodes;
+        }
+
+        private void add(long runs, long wallNanos, long cpuNanos, long allocatedBytes, long nodes) {
+            this.runs += runs;
+            this.wallNanos += wallNanos;
+            this.cpuNanos += cpuNanos;
+            this.allocatedBytes += allocatedBytes;
+            this.nodes += nodes;
+        }
+    }
+
+    /** A measurement that was started on the current thread */
+    public class Measurement {
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart = cpuTime();
+        private final long allocatedStart = allocatedBytes();
+
+        private Measurement() {}
+
+        /** Stop measuring, and add the measurement to the profile */
+        public void stop(String kind, String name, long nodes) {
+            var wall = System.nanoTime() - wallStart;
+            var cpu = cpuTime() - cpuStart;
+            var allocated = allocatedBytes() - allocatedStart;
+            synchronized (AnalysisProfile.this) {
+                entry(kind, name).add(1, wall, cpu, allocated, nodes);
+            }
+        }
+    }
+
+    /** Entries by kind and name, in the order in which they were first measured */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private int projects = 0;
+
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS != null ? ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private Entry entry(String kind, String name) {
+        return entries.computeIfAbsent(kind + ":" + name, key -> new Entry(kind, name));
+    }
+
+    /** Start measuring a phase or rule on the current thread */
+    public Measurement start() {
+        return new Measurement();
+    }
+
+    /** Count a project that was analysed for this profile */
+    public synchronized void addProject() {
+        projects++;
+    }
+
+    /** The number of projects that were analysed for this profile */
+    public synchronized int getProjects() {
+        return projects;
+    }
+
+    /** Add the measurements of another profile to this one */
+    public synchronized void add(AnalysisProfile other) {
+        synchronized (other) {
+            projects += other.projects;
+            for (var entry : other.entries.values()) {
+                entry(entry.kind, entry.name).add(entry.runs, entry.wallNanos, entry.cpuNanos, entry.allocatedBytes,
+                    entry.nodes);
+            }
+        }
+    }
+
+    /** All measured phases and rules, the most time consuming first */
+    public synchronized List<Entry> getEntries() {
+        var result = new ArrayList<Entry>();
+        for (var entry : entries.values()) {
+            var copy = new Entry(entry.kind, entry.name);
+            copy.add(entry.runs, entry.wallNanos, entry.cpuNanos, entry.allocatedBytes, entry.nodes);
+            result.add(copy);
+        }
+        result.sort(Comparator.comparingLong(Entry::getWallNanos).reversed());
+        return result;
+    }
+
+    /** Print a table of all measured phases and rules, the most time consuming first */
+    public void print(PrintStream out, String title) {
+        var entries = getEntries();
+        var totalWall = entries.stream().mapToLong(Entry::getWallNanos).sum();
+        out.printf("%s (%d %s, %.1f ms in total)%n", title, getProjects(), getProjects() == 1 ? "project" : "projects",
+            totalWall / 1e6);
+        out.printf("  %-6s %-40s %6s %10s %10s %11s %10s %7s%n",
+            "Kind", "Name", "Runs", "Wall ms", "CPU ms", "Alloc MB", "Nodes", "Share");
+        for (var entry : entries) {
+            out.printf("  %-6s %-40s %6d %10.1f %10.1f %11.2f %10d %6.1f%%%n",
+                entry.kind, entry.name, entry.runs, entry.wallNanos / 1e6, entry.cpuNanos / 1e6,
+                entry.allocatedBytes / (1024.0 * 1024.0), entry.nodes,
+                totalWall == 0 ? 0.0 : entry.wallNanos * 100.0 / totalWall);
+        }
+        if (!CPU_TIME_SUPPORTED || ALLOCATIONS == null)
+            out.println("  CPU time or allocated bytes cannot be measured on this JVM and are shown as 0.");
+        out.println();
+    }
+}
@@ -1,64 +1,299 @@
 package nl.utwente.processing.pmd;
 
 import net.sourceforge.pmd.*;
+import net.sourceforge.pmd.lang.ast.Node;
+import net.sourceforge.pmd.lang.ast.ParseException;
+import net.sourceforge.pmd.lang.xpath.Initializer;
 import net.sourceforge.pmd.renderers.Renderer;
-import net.sourceforge.pmd.util.ClasspathClassLoader;
-import net.sourceforge.pmd.util.datasource.DataSource;
 import net.sourceforge.pmd.util.datasource.ReaderDataSource;
+import nl.utwente.atelierpmd.metrics.Metrics;
 import nl.utwente.processing.ProcessingProject;
+import nl.utwente.processing.pmd.utils.AnalysisContext;
 
 import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
-/** Wrapper around PMD that allows for easy processing of projects */
-public class PMDRunner {
+/**
+ * Wrapper around PMD that allows for easy processing of projects. A runner can be used for many runs, on several
+ * threads at the same time. Close it when it is no longer used.
+ */
+public class PMDRunner implements AutoCloseable {
 
     // PMD Docs: https://pmd.github.io/pmd-6.27.0/pmd_userdocs_tools_java_api.html
 
-    private PMDConfiguration config;
-    private RuleSetFactory ruleSetFactory;
+    private static final String FILE_NAME = "Processing.pde";
+
+    /** The rulesets that are applied by default */
+    public static final String DEFAULT_RULESETS = "rulesets/atelier.xml";
+
+    private final PMDConfiguration config;
+    /**
+     * The rulesets as loaded from the XML definitions. These are never applied directly, every run works on
+     * its own copy, so the rule instances (which keep state while visiting a file) are not shared between runs.
+     */
+    private final RuleSets ruleSetsTemplate;
+    /** Rules that were removed from the template, because their configuration is not valid */
+    private final List<Report.ConfigurationError> configErrors;
+    /** Cache for the violations found in code that was analysed before, or null to always run the analysis */
+    private final AnalysisCache cache;
+    /** Description of the rules in the template, part of the key of every cache entry */
+    private final String ruleSetsFingerprint;
+    /** Factory for the rulesets of a single rule, used to apply the rules one by one when profiling */
+    private final RuleSetFactory ruleSetFactory;
+    /** Class loader for type resolution, used by every run */
+    private final ProcessingClassLoader classLoader;
+    /** Whether the class loader was created for this runner, and should be closed with it */
+    private final boolean ownsClassLoader;
 
     public PMDRunner() {
-        this("rulesets/atelier.xml");
+        this(DEFAULT_RULESETS, null);
     }
 
     public PMDRunner(String ruleSets) {
+        this(ruleSets, null);
+    }
+
+    public PMDRunner(AnalysisCache cache) {
+        this(DEFAULT_RULESETS, cache);
+    }
+
+    public PMDRunner(String ruleSets, AnalysisCache cache) {
+        this(ruleSets, cache, new ProcessingClassLoader(), true);
+    }
+
+    /**
+     * Create a runner that uses a class loader shared with other runners, so the classes resolved by one runner are
+     * known to the others. The class loader is not closed with the runner.
+     */
+    public PMDRunner(String ruleSets, AnalysisCache cache, ProcessingClassLoader classLoader) {
+        this(ruleSets, cache, classLoader, false);
+    }
+
+    private PMDRunner(String ruleSets, AnalysisCache cache, ProcessingClassLoader classLoader,
+                      boolean ownsClassLoader) {
+        this.classLoader = classLoader;
+        this.ownsClassLoader = ownsClassLoader;
         config = new PMDConfiguration();
+        config.setClassLoader(classLoader);
         config.setMinimumPriority(RulePriority.LOW);
         config.setRuleSets(ruleSets);
         config.setIgnoreIncrementalAnalysis(true);
         ruleSetFactory = RulesetsFactoryUtils.createFactory(config);
+        ruleSetsTemplate = RulesetsFactoryUtils.getRuleSets(ruleSets, ruleSetFactory);
+
+        var brokenRules = new HashSet<Rule>();
+        ruleSetsTemplate.removeDysfunctionalRules(brokenRules);
+        configErrors = brokenRules.stream()
+            .map(rule -> new Report.ConfigurationError(rule, rule.dysfunctionReason()))
+            .collect(Collectors.toList());
+
+        this.cache = cache;
+        ruleSetsFingerprint = AnalysisCache.fingerprint(ruleSetsTemplate);
     }
 
     /** Run a list of files through PMD, sending the results to the provided renderer */
     public void Run(ProcessingProject project, Renderer renderer) throws PMDException {
+        Run(project, renderer, null);
+    }
+
+    /**
+     * Run a list of files through PMD, sending the results to the provided renderer. If a profile is given, the
+     * time and memory spent in every phase and rule is added to it. The rules are then applied one by one, and
+     * cached results are never used.
+     */
+    public void Run(ProcessingProject project, Renderer renderer, AnalysisProfile profile) throws PMDException {
+        Render(Analyse(project, profile), renderer);
+    }
+
+    /**
+     * Run a list of files through PMD, without rendering the results yet. This is the part of a run that keeps the
+     * CPU busy, the rendering is usually waiting for other systems.
+     * @param profile profile to add the time and memory spent to, or null if the run should not be profiled
+     */
+    public Report Analyse(ProcessingProject project, AnalysisProfile profile) throws PMDException {
         try {
-            renderer.start();
+            var code = project.getJavaProjectCode();
+            var context = new RuleContext();
+            var report = Report.createReport(context, FILE_NAME);
+            configErrors.forEach(report::addConfigError);
 
-            List<DataSource> datasources = Collections.singletonList(
-                    new ReaderDataSource(new StringReader(project.getJavaProjectCode()), "Processing.pde")
-            );
+            var cacheKey = cache != null ? AnalysisCache.key(code, ruleSetsFingerprint) : null;
+            var cached = cache != null && profile == null ? cache.get(cacheKey, ruleSetsTemplate) : null;
 
-            try {
-                PMD.processFiles(
-                        config,
-                        ruleSetFactory,
-                        datasources,
-                        new RuleContext(),
-                        Collections.singletonList(renderer)
-                );
-            } finally {
-                ClassLoader auxiliaryClassLoader = config.getClassLoader();
-                if (auxiliaryClassLoader instanceof ClasspathClassLoader) {
-                    ((ClasspathClassLoader) auxiliaryClassLoader).close();
-                }
+            if (cached != null) {
+                // The same code was checked by the same rules before, no need to parse it again
+                cached.forEach(report::addRuleViolation);
+                Metrics.ANALYSIS_CACHE_LOOKUPS.inc("hit");
+                System.out.println("Reusing cached analysis results, " + cache.describe());
+            } else {
+                if (cache != null && profile == null)
+                    Metrics.ANALYSIS_CACHE_LOOKUPS.inc("miss");
+                analyse(code, context, report, profile);
+                if (profile != null)
+                    profile.addProject();
+                // Processing errors may be caused by something other than the code, so try again next time
+                if (cache != null && !report.hasErrors())
+                    cache.put(cacheKey, report.getViolations(), ruleSetsTemplate);
             }
+            for (var violation : report.getViolations()) {
+                Metrics.VIOLATIONS.inc(violation.getRule().getName());
+            }
+            return report;
+        } catch (Exception e) {
+            throw new PMDException(e);
+        }
+    }
+
+    /** Close the class loader for type resolution, if it is not shared with other runners */
+    @Override
+    public void close() {
+        if (ownsClassLoader) {
+            classLoader.close();
+        }
+    }
 
+    /** Send the results of {@link #Analyse(ProcessingProject, AnalysisProfile)} to the provided renderer */
+    public void Render(Report report, Renderer renderer) throws PMDException {
+        try {
+            renderer.start();
+            renderer.startFileAnalysis(new ReaderDataSource(new StringReader(""), FILE_NAME));
+            renderer.renderFileReport(report);
             renderer.end();
             renderer.flush();
         } catch (Exception e) {
             throw new PMDException(e);
         }
     }
-}
\ No newline at end of file
+
+    private void analyse(String code, RuleContext context, Report report, AnalysisProfile profile) {
+        // Copying the template only copies the rule instances and their properties,
+        // the ruleset XML is not resolved again
+        var ruleSets = new RuleSets(ruleSetsTemplate);
+        try {
+            ruleSets.start(context);
+            try {
+                process(code, ruleSets, context, profile);
+            } finally {
+                ruleSets.end(context);
+            }
+        } catch (ParseException e) {
+            report.addError(new Report.ProcessingError(
+                new net.sourceforge.pmd.PMDException("Error while parsing " + FILE_NAME, e), FILE_NAME));
+        } catch (RuntimeException e) {
+            report.addError(new Report.ProcessingError(
+                new net.sourceforge.pmd.PMDException("Error while processing " + FILE_NAME, e), FILE_NAME));
+        }
+    }
+
+    /**
+     * Parse the code and apply the rules to it. These are the same steps PMD's SourceCodeProcessor takes, but done
+     * here so the time spent in every phase can be recorded for this run alone.
+     */
+    private void process(String code, RuleSets ruleSets, RuleContext context, AnalysisProfile profile) {
+        if (context.getLanguageVersion() == null) {
+            context.setLanguageVersion(config.getLanguageVersionOfFile(FILE_NAME));
+        }
+        var languageVersion = context.getLanguageVersion();
+        var handler = languageVersion.getLanguageVersionHandler();
+        var language = languageVersion.getLanguage();
+        // Make sure the custom XPath functions are available
+        Initializer.initialize();
+
+        var start = System.nanoTime();
+        var measurement = profile != null ? profile.start() : null;
+        Node root;
+        try (var reader = new StringReader(code)) {
+            var parser = PMD.parserFor(languageVersion, config);
+            root = parser.parse(FILE_NAME, reader);
+            context.getReport().suppress(parser.getSuppressMap());
+        } finally {
+            Metrics.ANALYSIS_PHASE_SECONDS.observeSince(start, "parse");
+        }
+        // Counting the nodes is only worth the time when profiling
+        var nodes = profile != null ? new NodeCounts(root) : null;
+        if (profile != null)
+            measurement.stop("phase", "parse", nodes.total);
+
+        start = System.nanoTime();
+        try {
+            runPhase(profile, nodes, "qualified names",
+                () -> handler.getQualifiedNameResolutionFacade(classLoader).start(root));
+            runPhase(profile, nodes, "symbol table", () -> handler.getSymbolFacade(classLoader).start(root));
+            if (ruleSets.usesDFA(language)) {
+                runPhase(profile, nodes, "data flow", () -> handler.getDataFlowFacade().start(root));
+            }
+            if (ruleSets.usesTypeResolution(language)) {
+                runPhase(profile, nodes, "type resolution",
+                    () -> handler.getTypeResolutionFacade(classLoader).start(root));
+            }
+            if (ruleSets.usesMultifile(language)) {
+                runPhase(profile, nodes, "multifile", () -> handler.getMultifileFacade().start(root));
+            }
+        } finally {
+            Metrics.ANALYSIS_PHASE_SECONDS.observeSince(start, "resolution");
+        }
+
+        start = System.nanoTime();
+        try {
+            if (profile == null) {
+                ruleSets.apply(Collections.singletonList(root), context, language);
+            } else {
+                // Apply the rules one at a time, to measure them separately. The rules were already started
+                // together with the other rules, so they are only applied here. The context the rules share is
+                // built first, otherwise the first rule that needs it would be measured for it.
+                runPhase(profile, nodes, "analysis context", () -> AnalysisContext.prepare(root));
+                for (var rule : ruleSets.getAllRules()) {
+                    var ruleMeasurement = profile.start();
+                    new RuleSets(ruleSetFactory.createSingleRuleRuleSet(rule))
+                        .apply(Collections.singletonList(root), context, language);
+                    ruleMeasurement.stop("rule", rule.getName(), nodes.visitedBy(rule));
+                }
+            }
+        } finally {
+            Metrics.ANALYSIS_PHASE_SECONDS.observeSince(start, "rules");
+        }
+    }
+
+    /** Run a phase that visits the whole tree, measuring it if a profile is given */
+    private static void runPhase(AnalysisProfile profile, NodeCounts nodes, String name, Runnable phase) {
+        if (profile == null) {
+            phase.run();
+        } else {
+            var measurement = profile.start();
+            phase.run();
+            measurement.stop("phase", name, nodes.total);
+        }
+    }
+
+    /** The number of nodes in a tree, by node type */
+    private static class NodeCounts {
+        private final Map<String, Integer> byName = new HashMap<>();
+        private int total = 0;
+
+        NodeCounts(Node root) {
+            var pending = new ArrayDeque<Node>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                var node = pending.pop();
+                total++;
+                byName.merge(node.getXPathNodeName(), 1, Integer::sum);
+                for (int i = 0; i < node.getNumChildren(); i++) {
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+
+        /** The number of nodes a rule visits: only the node types it asks for if it uses the rule chain */
+        int visitedBy(Rule rule) {
+            if (!rule.usesRuleChain())
+                return total;
+            return rule.getRuleChainVisits().stream().mapToInt(name -> byName.getOrDefault(name, 0)).sum();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package nl.utwente.processing.pmd;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Auxiliary class loader for type resolution, which knows stubs of the Processing core types, like PVector and
+ * PImage. Sketches use these types without importing them, so the stubs are in the unnamed package. They only have
+ * the fields and method signatures type resolution needs, the methods throw when they are called.
+ *
+ * The class loader is meant to be created once and shared by every run, as PMD only keeps the classes it resolved
+ * for one class loader at a time.
+ */
+public class ProcessingClassLoader extends ClassLoader implements Closeable {
+
+    /**
+     * The stubs: the name of every type, its superclass, its fields as name:descriptor, and its methods as
+     * name(parameters)result, with "static " in front of static methods.
+     */
+    private static final String[][][] STUBS = {
+        {{"PApplet", "java/lang/Object"},
+            {"width:I", "height:I", "mouseX:I", "mouseY:I", "pmouseX:I", "pmouseY:I", "mouseButton:I",
+                "mousePressed:Z", "key:C", "keyCode:I", "keyPressed:Z", "frameCount:I", "frameRate:F"},
+            {"<init>()V", "static dist(FFFF)F", "static map(FFFFF)F", "static lerp(FFF)F",
+                "static constrain(FFF)F", "static constrain(III)I", "static abs(F)F", "static abs(I)I",
+                "static sqrt(F)F", "static sin(F)F", "static cos(F)F", "static radians(F)F",
+                "random(F)F", "random(FF)F", "noise(F)F", "noise(FF)F", "millis()I"}},
+        {{"PVector", "java/lang/Object"},
+            {"x:F", "y:F", "z:F"},
+            {"<init>()V", "<init>(FF)V", "<init>(FFF)V", "set(FF)LPVector;", "set(FFF)LPVector;",
+                "set(LPVector;)LPVector;", "copy()LPVector;", "mag()F", "magSq()F", "heading()F",
+                "add(LPVector;)LPVector;", "add(FF)LPVector;", "sub(LPVector;)LPVector;", "sub(FF)LPVector;",
+                "mult(F)LPVector;", "div(F)LPVector;", "dist(LPVector;)F", "dot(LPVector;)F",
+                "cross(LPVector;)LPVector;", "normalize()LPVector;", "limit(F)LPVector;", "setMag(F)LPVector;",
+                "rotate(F)LPVector;", "lerp(LPVector;F)LPVector;", "static dist(LPVector;LPVector;)F",
+                "static angleBetween(LPVector;LPVector;)F", "static fromAngle(F)LPVector;",
+                "static random2D()LPVector;", "static random3D()LPVector;"}},
+        {{"PImage", "java/lang/Object"},
+            {"width:I", "height:I", "pixels:[I"},
+            {"<init>()V", "<init>(II)V", "loadPixels()V", "updatePixels()V", "get(II)I", "get(IIII)LPImage;",
+                "set(III)V", "resize(II)V", "copy()LPImage;"}},
+        {{"PGraphics", "PImage"},
+            {},
+            {"<init>()V", "beginDraw()V", "endDraw()V"}},
+        {{"PFont", "java/lang/Object"},
+            {},
+            {"<init>()V", "getName()Ljava/lang/String;", "getSize()I"}},
+        {{"PShape", "java/lang/Object"},
+            {"width:F", "height:F"},
+            {"<init>()V", "getChildCount()I", "getChild(I)LPShape;", "getWidth()F", "getHeight()F",
+                "setVisible(Z)V", "isVisible()Z"}},
+    };
+
+    /** The protocol of the URLs of the class files of the stubs */
+    private static final String URL_PROTOCOL = "processing-stub";
+
+    /** The class files of the stubs by class name, emptied when the class loader is closed */
+    private final Map<String, byte[]> classFiles = new ConcurrentHashMap<>();
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    public ProcessingClassLoader() {
+        this(ProcessingClassLoader.class.getClassLoader());
+    }
+
+    public ProcessingClassLoader(ClassLoader parent) {
+        super(parent);
+        for (var stub : STUBS) {
+            classFiles.put(stub[0][0], generate(stub[0][0], stub[0][1], stub[1], stub[2]));
+        }
+    }
+
+    private static byte[] generate(String name, String superName, String[] fields, String[] methods) {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+        for (var field : fields) {
+            var separator = field.indexOf(':');
+            writer.visitField(Opcodes.ACC_PUBLIC, field.substring(0, separator), field.substring(separator + 1),
+                null, null).visitEnd();
+        }
+        for (var method : methods) {
+            var access = Opcodes.ACC_PUBLIC;
+            if (method.startsWith("static ")) {
+                access |= Opcodes.ACC_STATIC;
+                method = method.substring("static ".length());
+            }
+            var parameters = method.indexOf('(');
+            var visitor = writer.visitMethod(access, method.substring(0, parameters), method.substring(parameters),
+                null, null);
+            throwUnsupported(visitor);
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /** Give a method a body that throws an UnsupportedOperationException, which is valid for any signature */
+    private static void throwUnsupported(MethodVisitor visitor) {
+        var exception = "java/lang/UnsupportedOperationException";
+        visitor.visitCode();
+        visitor.visitTypeInsn(Opcodes.NEW, exception);
+        visitor.visitInsn(Opcodes.DUP);
+        visitor.visitMethodInsn(Opcodes.INVOKESPECIAL, exception, "<init>", "()V", false);
+        visitor.visitInsn(Opcodes.ATHROW);
+        visitor.visitMaxs(0, 0);
+        visitor.visitEnd();
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        var classFile = classFiles.get(name);
+        if (classFile == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, classFile, 0, classFile.length);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        // PMD reads the class files of imported classes to find their nested classes
+        if (!name.endsWith(".class")) {
+            return null;
+        }
+        var classFile = classFiles.get(name.substring(0, name.length() - ".class".length()));
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            return new URL(URL_PROTOCOL, null, -1, "/" + name, new URLStreamHandler() {
+                @Override
+                protected URLConnection openConnection(URL url) {
+                    return new URLConnection(url) {
+                        @Override
+                        public void connect() {
+                        }
+
+                        @Override
+                        public InputStream getInputStream() {
+                            return new ByteArrayInputStream(classFile);
+                        }
+                    };
+                }
+            });
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The stubs can no longer be loaded after the class loader is closed, the classes already loaded stay */
+    @Override
+    public void close() {
+        classFiles.clear();
+    }
+}
@@ -3,59 +3,50 @@ package nl.utwente.processing.pmd.rules
 import net.sourceforge.pmd.lang.java.ast.*
 import net.sourceforge.pmd.lang.java.rule.AbstractJavaRule
 import nl.utwente.processing.pmd.symbols.ProcessingApplet
-import nl.utwente.processing.pmd.symbols.ProcessingAppletMethodCategory
+import nl.utwente.processing.pmd.utils.analysisContext
+import java.util.ArrayDeque
+import java.util.Collections
+import java.util.IdentityHashMap
 
 /**
  * Class which implements the decentralized drawing smell as a PMD rule.
  */
 class DecentralizedDrawingRule : AbstractJavaRule() {
-    private val targetMethods = listOf<ProcessingAppletMethodCategory>(
-            ProcessingAppletMethodCategory.SHAPE,
-            ProcessingAppletMethodCategory.SHAPE_2D,
-            ProcessingAppletMethodCategory.SHAPE_CURVES,
-            ProcessingAppletMethodCategory.SHAPE_3D,
-            ProcessingAppletMethodCategory.SHAPE_ATTRIBUTES,
-            ProcessingAppletMethodCategory.SHAPE_VERTEX,
-            ProcessingAppletMethodCategory.SHAPE_LD
-    )
-
-    private val globalVariables = HashMap<String, ASTClassOrInterfaceDeclaration?>()
-    private val classDeclarations = HashMap<ASTClassOrInterfaceDeclaration, ArrayList<ASTMethodDeclaration>>()
-    private val stringToMethodDeclarations = HashMap<String, ASTMethodDeclaration>()
-    private val violatingMethods = ArrayList<ASTMethodDeclaration>()
+    private val targetMethods = ProcessingApplet.SHAPE_CATEGORIES
 
+    /**
+     * The calls in a method that draw shapes, and the methods it calls.
+     */
+    private class MethodSummary(val drawingMethods: List<ASTMethodDeclaration>, val callees: List<ASTMethodDeclaration>)
+
+    /** The methods that draw shapes and are called from an event handler */
+    private val violatingMethods = HashSet<ASTMethodDeclaration>()
+
+    /** The summaries of the methods analysed in the current compilation unit */
+    private val summaries = IdentityHashMap<ASTMethodDeclaration, MethodSummary>()
+
+    /** The methods with a name in a class, for the calls resolved in the current compilation unit */
+    private val resolvedCalls = IdentityHashMap<ASTClassOrInterfaceDeclaration, MutableMap<String, List<ASTMethodDeclaration>>>()
+
+    init {
+        addRuleChainVisit(ASTCompilationUnit::class.java)
+        // The classes are registered before the methods, so all violating methods are known when they are visited
+        addRuleChainVisit(ASTClassOrInterfaceDeclaration::class.java)
+        addRuleChainVisit(ASTMethodDeclaration::class.java)
+    }
 
     override fun visit(node: ASTCompilationUnit, data: Any): Any? {
-        for (classDec in node.findDescendantsOfType(ASTClassOrInterfaceDeclaration::class.java)) {
-            val methodList = ArrayList<ASTMethodDeclaration>()
-            for (method in classDec.findDescendantsOfType(ASTMethodDeclaration::class.java)) {
-                methodList.add(method)
-                if (!classDec.isNested) {
-                    stringToMethodDeclarations[method.name] = method
-                }
-            }
-            classDeclarations[classDec] = methodList
-        }
-        return super.visit(node, data)
+        violatingMethods.clear()
+        summaries.clear()
+        resolvedCalls.clear()
+        return data
     }
 
     override fun visit(node: ASTClassOrInterfaceDeclaration, data: Any): Any? {
         if (!node.isNested) {
-            for (field in node.findDescendantsOfType(ASTFieldDeclaration::class.java)) {
-                if (field.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java) != null) {
-                    val classDec = field.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java)
-                    if (classDec != null) {
-                        globalVariables[field.getFirstDescendantOfType(ASTVariableDeclaratorId::class.java).name] = classDec
-                    }
-                }
-            }
-            for (method in node.findDescendantsOfType(ASTMethodDeclaration::class.java)) {
-                if (isEventHandler(method.name)) {
-                    checkStatementExpressions(method.findDescendantsOfType(ASTStatementExpression::class.java), node, data)
-                }
-            }
+            checkMethods(node.analysisContext.methods(node).filter { isEventHandler(it.name) })
         }
-        return super.visit(node, data)
+        return data
     }
 
     override fun visit(node: ASTMethodDeclaration, data: Any): Any? {
@@ -63,38 +54,61 @@ class DecentralizedDrawingRule : AbstractJavaRule() {
             this.addViolationWithMessage(data, node.getFirstDescendantOfType(ASTResultType::class.java), message, kotlin.arrayOf(node.getFirstDescendantOfType(ASTName::class.java).image
                     , node.name))
         }
-        return super.visit(node, data)
+        return data
     }
 
-    private fun checkStatementExpressions(statements: List<ASTStatementExpression>, node: ASTClassOrInterfaceDeclaration, data: Any) {
-        val localVariables = extractLocalVariables(statements[0].getFirstParentOfType(ASTMethodDeclaration::class.java))
-        for (statement in statements) {
-            if (statement.getFirstDescendantOfType(ASTName::class.java) == null) {
-                continue
+    /**
+     * Find the methods that draw shapes among the given methods and all methods they call. Every method is analysed
+     * once, so recursive calls end, and the analysis stops after [MAX_METHODS] methods in a compilation unit.
+     */
+    private fun checkMethods(methods: List<ASTMethodDeclaration>) {
+        val worklist = ArrayDeque<ASTMethodDeclaration>(methods)
+        val visited = Collections.newSetFromMap(IdentityHashMap<ASTMethodDeclaration, Boolean>())
+        visited.addAll(methods)
+        while (worklist.isNotEmpty()) {
+            val method = worklist.removeFirst()
+            val summary = summaries[method] ?: if (summaries.size < MAX_METHODS) {
+                summarize(method).also { summaries[method] = it }
+            } else {
+                return
             }
-            if (isTargetShapeMethod(statement.getFirstDescendantOfType(ASTName::class.java).image) && !statement.hasDescendantOfType(ASTAssignmentOperator::class.java)) {
-                violatingMethods.add(statement.getFirstParentOfType(ASTMethodDeclaration::class.java)) // Check if method is target method
+            violatingMethods.addAll(summary.drawingMethods)
+            for (callee in summary.callees) {
+                if (visited.add(callee)) {
+                    worklist.addLast(callee)
+                }
             }
-            if (statement.getFirstDescendantOfType(ASTName::class.java).image.contains('.')) { // Check if method is called from an instantiated class.
-                val expression = statement.getFirstDescendantOfType(ASTName::class.java).image.split('.')
-                if (globalVariables.containsKey(expression[0])) {
-                    checkClassMethod(expression[1], globalVariables[expression[0]], node, data)
-                } else if (localVariables.containsKey(expression[0])) {
-                    checkClassMethod(expression[1], localVariables[expression[0]], node, data)
+        }
+    }
+
+    private fun summarize(method: ASTMethodDeclaration): MethodSummary {
+        val context = method.analysisContext
+        val drawingMethods = ArrayList<ASTMethodDeclaration>()
+        val callees = ArrayList<ASTMethodDeclaration>()
+        val statements = method.findDescendantsOfType(ASTStatementExpression::class.java)
+        val localVariables = if (statements.isEmpty()) emptyMap() else extractLocalVariables(method)
+        for (statement in statements) {
+            val name = statement.getFirstDescendantOfType(ASTName::class.java)?.image ?: continue
+            if (isTargetShapeMethod(name) && !statement.hasDescendantOfType(ASTAssignmentOperator::class.java)) {
+                drawingMethods.add(statement.getFirstParentOfType(ASTMethodDeclaration::class.java)) // Check if method is target method
+            }
+            if (name.contains('.')) { // Check if method is called from an instantiated class.
+                val expression = name.split('.')
+                val targetClass = context.fieldClasses[expression[0]] ?: localVariables[expression[0]]
+                if (targetClass != null) {
+                    callees.addAll(resolveCall(expression[1], targetClass))
                 }
             }
-            if (stringToMethodDeclarations.containsKey(statement.getFirstDescendantOfType(ASTName::class.java).image)) { // Check if method is from the Main Tab.
-                checkClassMethod(statement.getFirstDescendantOfType(ASTName::class.java).image, statement.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java)
-                        , node, data)
+            if (context.isTopLevelMethod(name)) { // Check if method is from the Main Tab.
+                callees.addAll(resolveCall(name, statement.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java)))
             }
         }
+        return MethodSummary(drawingMethods, callees)
     }
 
-    private fun checkClassMethod(targetMethod: String, targetClass: ASTClassOrInterfaceDeclaration?, node: ASTClassOrInterfaceDeclaration, data: Any) {
-        for (method in targetClass?.findDescendantsOfType(ASTMethodDeclaration::class.java)!!) {
-            if (method.name == targetMethod) {
-                checkStatementExpressions(method.findDescendantsOfType(ASTStatementExpression::class.java), node, data)
-            }
+    private fun resolveCall(targetMethod: String, targetClass: ASTClassOrInterfaceDeclaration): List<ASTMethodDeclaration> {
+        return resolvedCalls.getOrPut(targetClass) { HashMap() }.getOrPut(targetMethod) {
+            targetClass.analysisContext.methods(targetClass).filter { it.name == targetMethod }
         }
     }
 
@@ -103,7 +117,7 @@ class DecentralizedDrawingRule : AbstractJavaRule() {
         for (localVariable in method.findDescendantsOfType(ASTLocalVariableDeclaration::class.java)) {
             val varName = localVariable.getFirstDescendantOfType(ASTVariableDeclaratorId::class.java).name
             if (localVariable.getFirstDescendantOfType(ASTClassOrInterfaceType::class.java) != null) {
-                val varClass = getClassDeclaration(localVariable.getFirstDescendantOfType(ASTClassOrInterfaceType::class.java).image
+                val varClass = method.analysisContext.findClass(localVariable.getFirstDescendantOfType(ASTClassOrInterfaceType::class.java).image
                         , method.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java))
                 if (varName != "kotlin.Unit" && varClass != null) {
                     res[varName] = varClass
@@ -113,31 +127,16 @@ class DecentralizedDrawingRule : AbstractJavaRule() {
         return res
     }
 
-
-    private fun getClassDeclaration(target: String, node: ASTClassOrInterfaceDeclaration): ASTClassOrInterfaceDeclaration? {
-        for (classDec in node.findDescendantsOfType(ASTClassOrInterfaceDeclaration::class.java)) {
-            if (classDec.simpleName == target) {
-                return classDec
-            }
-        }
-        return null
-    }
-
     private fun isEventHandler(methodName: String): Boolean {
-        ProcessingApplet.EVENT_METHOD_SIGNATURES.forEach {
-            if (it.startsWith(methodName)) {
-                return true
-            }
-        }
-        return false;
+        return methodName in ProcessingApplet.EVENT_METHOD_NAMES
     }
 
     private fun isTargetShapeMethod(methodName: String): Boolean {
-        ProcessingApplet.DRAW_METHODS.forEach {
-            if (it.name == methodName && targetMethods.contains(it.category)) {
-                return true
-            }
-        }
-        return false
+        return ProcessingApplet.DRAW_METHOD_INDEX.hasCategory(methodName, targetMethods)
+    }
+
+    companion object {
+        /** The maximum number of methods analysed in a compilation unit */
+        private const val MAX_METHODS = 10000
     }
 }
\ No newline at end of file
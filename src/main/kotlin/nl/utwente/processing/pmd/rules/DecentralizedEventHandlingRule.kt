@@ -7,7 +7,7 @@ import net.sourceforge.pmd.lang.java.ast.ASTPrimaryExpression
 import net.sourceforge.pmd.lang.java.rule.AbstractJavaRule
 import net.sourceforge.pmd.lang.java.symboltable.ClassScope
 import nl.utwente.processing.pmd.symbols.ProcessingApplet
-import nl.utwente.processing.pmd.utils.findMethods
+import nl.utwente.processing.pmd.utils.analysisContext
 import nl.utwente.processing.pmd.utils.matches
 import nl.utwente.processing.pmd.utils.uniqueCallStack
 
@@ -16,34 +16,42 @@ import nl.utwente.processing.pmd.utils.uniqueCallStack
  */
 class DecentralizedEventHandlingRule: AbstractJavaRule() {
 
-    private var eventStack: Set<ASTMethodDeclaration> = emptySet();
+    /** The methods that are only called by event handlers, in all top-level classes */
+    private val eventStack = HashSet<ASTMethodDeclaration>()
+
+    init {
+        // The classes are registered before the expressions, so the event stacks are known when they are checked
+        addRuleChainVisit(ASTCompilationUnit::class.java)
+        addRuleChainVisit(ASTClassOrInterfaceDeclaration::class.java)
+        addRuleChainVisit(ASTPrimaryExpression::class.java)
+    }
 
     override fun visit(node: ASTCompilationUnit?, data: Any?): Any? {
-        this.eventStack = emptySet()
-        return super.visit(node, data)
+        this.eventStack.clear()
+        return data
     }
 
     override fun visit(node: ASTClassOrInterfaceDeclaration, data: Any): Any? {
         //Check if this is a top node, not a inner class.
         if (!node.isNested) {
             val scope = node.scope as? ClassScope
-            val methodDecls = scope?.findMethods(ProcessingApplet.EVENT_METHOD_SIGNATURES)
-            methodDecls?.let {
-                this.eventStack = scope.uniqueCallStack(*methodDecls)
+            val methodDecls = node.analysisContext.eventHandlers[node]
+            if (scope != null && methodDecls != null) {
+                this.eventStack.addAll(scope.uniqueCallStack(*methodDecls))
             }
         }
-        return super.visit(node, data)
+        return data
     }
 
     override fun visit(node: ASTPrimaryExpression, data: Any): Any? {
         val method = node.getFirstParentOfType(ASTMethodDeclaration::class.java)
         if (method != null && method !in this.eventStack) {
-            val match = node.matches(*ProcessingApplet.EVENT_GLOBALS.toTypedArray())
+            val match = node.matches(ProcessingApplet.EVENT_GLOBALS)
             match?.let {
                 this.addViolationWithMessage(data, node, message, kotlin.arrayOf(match, method.name))
             }
         }
-        return super.visit(node, data)
+        return data
     }
 
 }
\ No newline at end of file
@@ -1,13 +1,12 @@
 package nl.utwente.processing.pmd.rules
 
+import net.sourceforge.pmd.lang.ast.Node
 import net.sourceforge.pmd.lang.java.ast.*
 import net.sourceforge.pmd.lang.java.symboltable.ClassScope
-import net.sourceforge.pmd.lang.java.symboltable.SourceFileScope
-import net.sourceforge.pmd.lang.java.symboltable.VariableNameDeclaration
-import net.sourceforge.pmd.lang.symboltable.Scope
 import net.sourceforge.pmd.util.StringUtil
 import nl.utwente.processing.pmd.AbstractProcessingRule
-import nl.utwente.processing.pmd.utils.increment
+import nl.utwente.processing.pmd.utils.analysisContext
+import java.util.BitSet
 
 /**
  * Class which implements the God Class design smell as PMD rule. Heavily based on the original PMD implementation,
@@ -36,78 +35,90 @@ class GodClassRule : AbstractProcessingRule() {
     private val ONE_THIRD_THRESHOLD = 1.0 / 3.0
 
     /**
-     * The Weighted Method Count metric, per class.
+     * The metrics of a class.
      */
-    private val wmcCounter: MutableMap<ClassScope, Int> = HashMap()
-
-    /**
-     * The Access To Foreign Data metric, per class.
-     */
-    private val atfdCounter: MutableMap<ClassScope, Int> = HashMap()
-
-    /**
-     * Collects for each method of the each class, which local attributes are accessed.
-     */
-    private val methodAttributeAccess: MutableMap<ClassScope, MutableMap<String, MutableSet<String>>> = HashMap()
-
-    /**
-     * The current class scope to visit nodes of.
-     */
-    private var currentClassScope: ClassScope? = null;
+    private class ClassMetrics {
+        /** The Weighted Method Count metric */
+        var wmc = 0
+        /** The Access To Foreign Data metric */
+        var atfd = 0
+        /** The ids of the attributes accessed in the methods of the class */
+        val attributeIds = HashMap<String, Int>()
+        /** For each method, by name, the ids of the attributes it accesses */
+        val methodAttributeAccess = LinkedHashMap<String, BitSet>()
+
+        fun attributeId(name: String): Int {
+            return attributeIds.getOrPut(name) { attributeIds.size }
+        }
+    }
 
     /**
-     * The name of the current method.
+     * The metrics per class.
      */
-    private var currentMethodName: String? = null
+    private val classMetrics = HashMap<ClassScope, ClassMetrics>()
+
+    init {
+        addRuleChainVisit(ASTCompilationUnit::class.java)
+        addRuleChainVisit(ASTMethodDeclaration::class.java)
+        addRuleChainVisit(ASTPrimaryExpression::class.java)
+        addRuleChainVisit(ASTConditionalOrExpression::class.java)
+        addRuleChainVisit(ASTConditionalAndExpression::class.java)
+        addRuleChainVisit(ASTIfStatement::class.java)
+        addRuleChainVisit(ASTWhileStatement::class.java)
+        addRuleChainVisit(ASTForStatement::class.java)
+        addRuleChainVisit(ASTSwitchLabel::class.java)
+        addRuleChainVisit(ASTCatchStatement::class.java)
+        addRuleChainVisit(ASTConditionalExpression::class.java)
+        // The rule chain visits the node types in this order, so the metrics of all classes are complete by the time
+        // the classes themselves are visited.
+        addRuleChainVisit(ASTClassOrInterfaceDeclaration::class.java)
+    }
 
     /**
      * For each compilation unit, clear all attributes (if the class is reused).
      */
     override fun visit(node: ASTCompilationUnit, data: Any): Any? {
-        this.wmcCounter.clear()
-        this.atfdCounter.clear()
-        this.methodAttributeAccess.clear()
-        this.currentClassScope = null
-        return super.visit(node, data)
+        this.classMetrics.clear()
+        return data
     }
 
     /**
-     * Base entry point for the visitor - a class declaration (everything that belongs to a class). Here the metrics
-     * for the specified class are initialized. Then the other nodes are visited. Afterwards te metrics are evaluated
-     * against fixed thresholds.
+     * A class declaration (everything that belongs to a class) is visited after all other nodes, when the metrics of
+     * the class have been collected. Here they are evaluated against fixed thresholds.
      *
      * The behaviour differs here a little bit from the original PMD implementation, which has the main entry point
      * not on a class, but on a compilation unit, which makes more sense for Java than for Processing.
      */
     override fun visit(node: ASTClassOrInterfaceDeclaration, data: Any): Any? {
-        val oldScope = this.currentClassScope
-        val scope = node.scope as ClassScope
-        this.wmcCounter.put(scope, 0)
-        this.atfdCounter.put(scope, 0)
-        this.methodAttributeAccess.put(scope, HashMap())
-        this.currentClassScope = scope
-
-        val result = super.visit(node, data)
-        val tcc = this.calculateTcc(scope)
-
-        if ((this.wmcCounter.getOrDefault(scope, 0) >= WMC_VERY_HIGH &&
-                        this.atfdCounter.getOrDefault(scope, 0) > FEW_THRESHOLD &&
-                        tcc < ONE_THIRD_THRESHOLD) || DEBUG) {
+        val metrics = this.classMetrics[node.scope as ClassScope] ?: ClassMetrics()
+        val wmc = metrics.wmc
+        val atfd = metrics.atfd
+        val tcc = this.calculateTcc(metrics)
+
+        if ((wmc >= WMC_VERY_HIGH && atfd > FEW_THRESHOLD && tcc < ONE_THIRD_THRESHOLD) || DEBUG) {
                             // TODO: Main tab not checked, ask Ansgar.
             this.addViolationWithMessage(data, node, message, node.beginLine, node.beginLine,
-                    kotlin.arrayOf(node.image, this.wmcCounter[scope], this.atfdCounter[scope], tcc))
+                    kotlin.arrayOf(node.image, wmc, atfd, tcc))
         }
-        this.currentClassScope = oldScope
-        return result
+        return data
+    }
+
+    /**
+     * The metrics of the class a node is counted for, the class declaration around it.
+     */
+    private fun metricsOf(node: Node): ClassMetrics? {
+        val scope = node.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java)?.scope as? ClassScope
+                ?: return null
+        return this.classMetrics.getOrPut(scope) { ClassMetrics() }
     }
 
     /**
      * Calculates the Tight Class Cohesion metric.
      * @return a value between 0 and 1.
      */
-    private fun calculateTcc(scope: ClassScope): Double {
-        val methodPairs = determineMethodPairs(scope)
-        val totalMethodPairs = calculateTotalMethodPairs(scope)
+    private fun calculateTcc(metrics: ClassMetrics): Double {
+        val methodPairs = determineMethodPairs(metrics)
+        val totalMethodPairs = calculateTotalMethodPairs(metrics)
         return methodPairs / totalMethodPairs
     }
 
@@ -116,38 +127,26 @@ class GodClassRule : AbstractProcessingRule() {
      * It will be 0, if no methods exist or only one method, means, if no pairs exist.
      * @return The calculated total method pairs.
      */
-    private fun calculateTotalMethodPairs(scope: ClassScope): Double {
-        val n = (this.methodAttributeAccess[scope]?.size ?: 0) - 1
+    private fun calculateTotalMethodPairs(metrics: ClassMetrics): Double {
+        val n = metrics.methodAttributeAccess.size - 1
         return n * (n + 1) / 2.0
     }
 
     /**
-     * Uses the [.methodAttributeAccess] map to detect method pairs, that use at least one common attribute of the class.
+     * Uses the attribute accesses of the methods to detect method pairs, that use at least one common attribute of
+     * the class.
      * @return The method pairs that use at least one common attribute in the same class scope.
      */
-    private fun determineMethodPairs(scope: ClassScope): Int {
-        val methods = ArrayList(this.methodAttributeAccess[scope]?.keys ?: emptyList())
+    private fun determineMethodPairs(metrics: ClassMetrics): Int {
+        val accesses = metrics.methodAttributeAccess.values.filter { !it.isEmpty }
         var pairs = 0
-
-        if (methods.size > 1) {
-            for (i in 0..methods.size - 1) {
-                for (j in i + 1..methods.size - 1) {
-                    val firstMethodName = methods[i]
-                    val secondMethodName = methods[j]
-                    val accessesOfFirstMethod = this.methodAttributeAccess[scope]?.get(firstMethodName) ?: HashSet()
-                    val accessesOfSecondMethod = this.methodAttributeAccess[scope]?.get(secondMethodName) ?: HashSet()
-                    val combinedAccesses = HashSet<String>()
-
-                    combinedAccesses.addAll(accessesOfFirstMethod)
-                    combinedAccesses.addAll(accessesOfSecondMethod)
-
-                    if (combinedAccesses.size < accessesOfFirstMethod.size + accessesOfSecondMethod.size) {
-                        pairs++
-                    }
+        for (i in accesses.indices) {
+            for (j in i + 1 until accesses.size) {
+                if (accesses[i].intersects(accesses[j])) {
+                    pairs++
                 }
             }
         }
-
         return pairs
     }
 
@@ -156,25 +155,24 @@ class GodClassRule : AbstractProcessingRule() {
      * foreign class, then the [.methodAttributeAccess] map is updated for the current method.
      */
     override fun visit(node: ASTPrimaryExpression, data: Any): Any? {
+        val classDecl = node.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java) ?: return data
+        val metrics = this.metricsOf(node) ?: return data
         if (this.isForeignAttributeOrMethod(node)) {
             if (this.isAttributeAccess(node) || this.isMethodCall(node) && this.isForeignGetterSetterCall(node)) {
-                this.atfdCounter.increment(this.currentClassScope)
+                metrics.atfd++
             }
         } else {
-            val currentMethod = this.currentMethodName
-            if (currentMethod != null) {
-                val methodAccess = this.methodAttributeAccess[this.currentClassScope]?.get(currentMethod)
+            val method = node.getFirstParentOfType(ASTMethodDeclaration::class.java)
+            // Only count the accesses in the methods of the class itself, not in those of a class around it
+            if (method != null && method.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java) == classDecl) {
                 val variableName = this.getVariableName(node)
-                variableName?.let {
-                    val variableDeclaration = this.findVariableDeclaration(it, this.currentClassScope!!)
-                    if (variableDeclaration != null) {
-                        methodAccess?.add(it)
-                    }
+                if (variableName != null && variableName in node.analysisContext.visibleVariableNames(classDecl)) {
+                    this.methodAccess(metrics, method).set(metrics.attributeId(variableName))
                 }
             }
         }
 
-        return super.visit(node, data)
+        return data
     }
 
     private fun isForeignGetterSetterCall(node: ASTPrimaryExpression): Boolean {
@@ -249,80 +247,68 @@ class GodClassRule : AbstractProcessingRule() {
         return methodOrAttributeName
     }
 
-    private fun findVariableDeclaration(variableName: String, scope: Scope): VariableNameDeclaration? {
-        var result: VariableNameDeclaration? = null
-
-        for (declaration in scope.getDeclarations(VariableNameDeclaration::class.java).keys) {
-            if (declaration.image == variableName) {
-                result = declaration
-                break
-            }
-        }
-
-        if (result == null && scope.parent != null && scope.parent !is SourceFileScope) {
-            result = findVariableDeclaration(variableName, scope.parent)
-        }
-
-        return result
-    }
-
     private fun isAttributeAccess(node: ASTPrimaryExpression): Boolean {
         return node.findDescendantsOfType(ASTPrimarySuffix::class.java).isEmpty()
     }
 
-    override fun visit(node: ASTMethodDeclaration, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-
-        val currentMethod = node.getFirstChildOfType(ASTMethodDeclarator::class.java).image
-        this.methodAttributeAccess[this.currentClassScope]?.put(currentMethod, HashSet<String>())
-
-        this.currentMethodName = currentMethod
-        val result = super.visit(node, data)
-        this.currentMethodName = null
+    /**
+     * The attributes accessed by a method. Overloads of a method share their accesses, as methods are told apart by
+     * name only.
+     */
+    private fun methodAccess(metrics: ClassMetrics, method: ASTMethodDeclaration): BitSet {
+        val methodName = method.getFirstChildOfType(ASTMethodDeclarator::class.java).image
+        return metrics.methodAttributeAccess.getOrPut(methodName) { BitSet() }
+    }
 
-        return result
+    override fun visit(node: ASTMethodDeclaration, data: Any): Any? {
+        val metrics = this.metricsOf(node)
+        if (metrics != null) {
+            metrics.wmc++
+            this.methodAccess(metrics, node)
+        }
+        return data
     }
 
     override fun visit(node: ASTConditionalOrExpression, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTConditionalAndExpression, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTIfStatement, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTWhileStatement, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTForStatement, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTSwitchLabel, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTCatchStatement, data: Any): Any? {
-        this.wmcCounter.increment(this.currentClassScope)
-        return super.visit(node, data)
+        this.metricsOf(node)?.let { it.wmc++ }
+        return data
     }
 
     override fun visit(node: ASTConditionalExpression, data: Any): Any? {
         if (node.isTernary) {
-            this.wmcCounter.increment(this.currentClassScope)
+            this.metricsOf(node)?.let { it.wmc++ }
         }
-        return super.visit(node, data)
+        return data
     }
 
 }
\ No newline at end of file
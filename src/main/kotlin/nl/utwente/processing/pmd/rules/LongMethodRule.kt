@@ -5,7 +5,6 @@ import net.sourceforge.pmd.lang.java.metrics.api.JavaOperationMetricKey
 import net.sourceforge.pmd.lang.java.rule.AbstractJavaRule
 import net.sourceforge.pmd.lang.metrics.MetricsUtil
 import nl.utwente.processing.pmd.symbols.ProcessingApplet
-import nl.utwente.processing.pmd.symbols.ProcessingAppletMethodCategory
 import java.lang.Exception
 import java.lang.IllegalStateException
 
@@ -15,16 +14,12 @@ import java.lang.IllegalStateException
  */
 class LongMethodRule : AbstractJavaRule() {
 
-    // List to store all methods that can be within a block, can be expanded as needed in the future.
-    private val targetMethods = listOf<ProcessingAppletMethodCategory>(
-            ProcessingAppletMethodCategory.SHAPE,
-            ProcessingAppletMethodCategory.SHAPE_2D,
-            ProcessingAppletMethodCategory.SHAPE_CURVES,
-            ProcessingAppletMethodCategory.SHAPE_3D,
-            ProcessingAppletMethodCategory.SHAPE_ATTRIBUTES,
-            ProcessingAppletMethodCategory.SHAPE_VERTEX,
-            ProcessingAppletMethodCategory.SHAPE_LD
-    )
+    init {
+        addRuleChainVisit(ASTMethodDeclaration::class.java)
+    }
+
+    // Categories of all methods that can be within a block, can be expanded as needed in the future.
+    private val targetMethods = ProcessingApplet.SHAPE_CATEGORIES
 
     /**
      *  Visitor goes through all method declarations and first uses the standard PMD NCSS method to get the
@@ -35,7 +30,7 @@ class LongMethodRule : AbstractJavaRule() {
     override fun visit(node: ASTMethodDeclaration, data: Any?): Any? {
         val ncss = MetricsUtil.computeMetric(JavaOperationMetricKey.NCSS, node)
 
-        if (!node.hasDescendantOfType(ASTStatementExpression::class.java))  return super.visit(node, data) // Filters abstract classes.
+        if (!node.hasDescendantOfType(ASTStatementExpression::class.java))  return data // Filters abstract classes.
 
         val expressions = node.body.findDescendantsOfType(ASTStatementExpression::class.java)
         var blockOffset = 0.0
@@ -74,7 +69,7 @@ class LongMethodRule : AbstractJavaRule() {
         if ((ncss - blockOffset) > 50.0) {
             this.addViolationWithMessage(data, node.getFirstDescendantOfType(ASTResultType::class.java), message, arrayOf(node.name, ncss))
         }
-        return super.visit(node, data)
+        return data
     }
 
     /**
@@ -84,11 +79,6 @@ class LongMethodRule : AbstractJavaRule() {
      * @return Boolean if the method is defined as a shape method within target methods.
      */
     private fun isShapeMethod(methodName: String): Boolean {
-        ProcessingApplet.DRAW_METHODS.forEach {
-            if (it.name == methodName && targetMethods.contains(it.category)) {
-                return true
-            }
-        }
-        return false
+        return ProcessingApplet.DRAW_METHOD_INDEX.hasCategory(methodName, targetMethods)
     }
 }
\ No newline at end of file
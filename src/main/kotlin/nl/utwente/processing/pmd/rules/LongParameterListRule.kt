@@ -1,33 +1,40 @@
 package nl.utwente.processing.pmd.rules
 
 import net.sourceforge.pmd.lang.java.ast.*
-import net.sourceforge.pmd.lang.java.rule.design.ExcessiveNodeCountRule
-import net.sourceforge.pmd.lang.rule.stat.StatisticalRule
-import net.sourceforge.pmd.stat.DataPoint
-import net.sourceforge.pmd.util.NumericConstants
+import net.sourceforge.pmd.lang.java.rule.AbstractJavaRule
+import net.sourceforge.pmd.properties.PropertyFactory
+import net.sourceforge.pmd.properties.constraints.NumericConstraints
 
 /**
  * Class which implements the long parameter list smell as PMD rule. Based on the ExcessiveParameterListRule in PMD.
  */
-class LongParameterListRule : ExcessiveNodeCountRule(ASTFormalParameters::class.java) {
+class LongParameterListRule : AbstractJavaRule() {
 
     init {
-        setProperty(StatisticalRule.MINIMUM_DESCRIPTOR, 6.0)
+        definePropertyDescriptor(MINIMUM_DESCRIPTOR)
+        addRuleChainVisit(ASTFormalParameters::class.java)
     }
 
-    override fun visit(node: ASTFormalParameter, data: Any): Any {
-        return NumericConstants.ONE
-    }
-
-    override fun getViolationParameters(point: DataPoint?): Array<Any> {
-        val parent = point?.node?.jjtGetParent()
-        val reference = when(parent) {
-            is ASTConstructorDeclaration -> "constructor " + parent.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java).image
-            is ASTMethodDeclaration -> parent.methodName
-            else -> "(null)"
+    override fun visit(node: ASTFormalParameters, data: Any): Any? {
+        val count = node.size()
+        if (count >= getProperty(MINIMUM_DESCRIPTOR)) {
+            val parent = node.jjtGetParent()
+            val reference = when(parent) {
+                is ASTConstructorDeclaration -> "constructor " + parent.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java).image
+                is ASTMethodDeclaration -> parent.methodName
+                else -> "(null)"
+            }
+            addViolationWithMessage(data, node, message, arrayOf(reference, count.toString()))
         }
-        val score = point?.score?.toInt()
-        return arrayOf(reference, score.toString())
+        return data
     }
 
-}
\ No newline at end of file
+    companion object {
+        /** The number of parameters from which a parameter list is too long */
+        private val MINIMUM_DESCRIPTOR = PropertyFactory.intProperty("minimum")
+                .desc("Minimum number of parameters to report")
+                .require(NumericConstraints.positive())
+                .defaultValue(6)
+                .build()
+    }
+}
@@ -2,10 +2,10 @@ package nl.utwente.processing.pmd.rules
 
 import net.sourceforge.pmd.lang.java.ast.*
 import net.sourceforge.pmd.lang.java.rule.AbstractJavaRule
-import net.sourceforge.pmd.lang.java.symboltable.ClassScope
 import net.sourceforge.pmd.lang.java.symboltable.MethodScope
 import net.sourceforge.pmd.lang.java.symboltable.VariableNameDeclaration
 import net.sourceforge.pmd.lang.symboltable.NameOccurrence
+import nl.utwente.processing.pmd.utils.analysisContext
 import kotlin.collections.ArrayList
 import kotlin.math.exp
 import kotlin.math.expm1
@@ -23,20 +23,23 @@ import kotlin.math.expm1
  */
 class OutOfScopeStateChangeRule: AbstractJavaRule() {
 
-    private var classDeclarations  = ArrayList<String>()
+    private var classDeclarations: Set<String> = emptySet()
     private var methodDeclarations = ArrayList<String>()
-    private var globalDeclarations = ArrayList<String>()
     private var currentClassName = ""
     private var currentMethodName = ""
 
+    init {
+        addRuleChainVisit(ASTClassOrInterfaceDeclaration::class.java)
+        addRuleChainVisit(ASTMethodDeclaration::class.java)
+    }
+
     /* Constructor Handler */
     override fun visit(node: ASTClassOrInterfaceDeclaration, data: Any): Any? {
-        if (!node.isNested) {
-           globalDeclarations = extractImages((node.scope as? ClassScope)?.variableDeclarations!!)
-        } else {
+        if (node.isNested) {
+            val globalDeclarations = node.analysisContext.globalFieldNames
             val constructor = node.getFirstDescendantOfType(ASTConstructorDeclaration::class.java)
             if (constructor != null) {
-                val nodeScope = extractImages((node.scope as? ClassScope)?.variableDeclarations!!)
+                val nodeScope = node.analysisContext.fieldNames(node)
                 val constScope = extractImages((constructor.scope as? MethodScope)?.variableDeclarations!!)
                 for (expression in constructor.findDescendantsOfType(ASTStatementExpression::class.java)) {
                     if (expression.hasDescendantOfType(ASTAssignmentOperator::class.java) || expression.hasDescendantOfType(ASTPostfixExpression::class.java)) {
@@ -54,7 +57,7 @@ class OutOfScopeStateChangeRule: AbstractJavaRule() {
                 }
             }
         }
-        return super.visit(node, data)
+        return data
     }
 
     /* Method Handler */
@@ -62,12 +65,13 @@ class OutOfScopeStateChangeRule: AbstractJavaRule() {
         val currentClass = node.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java)
         if (currentClass.simpleName != currentClassName) {
             currentClassName = currentClass.simpleName
-            classDeclarations = extractImages((currentClass.scope as? ClassScope)?.variableDeclarations!!)
+            classDeclarations = node.analysisContext.fieldNames(currentClass)
         }
         if (node.name != currentMethodName) {
             currentMethodName = node.name
             methodDeclarations = extractImages((node.scope as? MethodScope)?.variableDeclarations!!)
         }
+        val globalDeclarations = node.analysisContext.globalFieldNames
         for (expression in node.findDescendantsOfType(ASTStatementExpression::class.java)) {
             if (expression.hasDescendantOfType(ASTAssignmentOperator::class.java) || expression.hasDescendantOfType(ASTPostfixExpression::class.java)) {
                 /* It's this long since it need to account for a possible 'this' being in front of variable */
@@ -82,7 +86,7 @@ class OutOfScopeStateChangeRule: AbstractJavaRule() {
                 }
             }
         }
-        return super.visit(node, data)
+        return data
     }
 
     /* Helper Methods */
@@ -17,9 +17,14 @@ class PixelHardcodeIgnoranceRule : AbstractJavaRule() {
 
     private var pushesMatrix = false
 
+    init {
+        addRuleChainVisit(ASTCompilationUnit::class.java)
+        addRuleChainVisit(ASTPrimaryExpression::class.java)
+    }
+
     override fun visit(node: ASTCompilationUnit?, data: Any?): Any? {
         this.pushesMatrix=false
-        return super.visit(node, data)
+        return data
     }
 
 
@@ -27,12 +32,12 @@ class PixelHardcodeIgnoranceRule : AbstractJavaRule() {
         val method = node.getFirstParentOfType(ASTMethodDeclaration::class.java)
 
         if (node.isMethodCall) {
-            val matchPushMatrix = node.matches(*ProcessingApplet.MATRIX_METHOD_SIGNATURES.toTypedArray())
+            val matchPushMatrix = node.matches(ProcessingApplet.MATRIX_METHOD_SIGNATURES)
             matchPushMatrix?.let {
                 pushesMatrix=true
             }
 
-            val match = node.matches(*ProcessingApplet.DRAW_METHODS.toTypedArray())
+            val match = node.matches(ProcessingApplet.DRAW_METHOD_INDEX)
             match?.let {
                 if (node.hasLiteralArguments(match)  &&!pushesMatrix ) {
                     this.addViolationWithMessage(data, node, message, kotlin.arrayOf(match, method.methodName))
@@ -41,7 +46,7 @@ class PixelHardcodeIgnoranceRule : AbstractJavaRule() {
             }
 
         }
-        return super.visit(node, data)
+        return data
     }
 
 }
\ No newline at end of file
@@ -1,7 +1,6 @@
 package nl.utwente.processing.pmd.rules
 
 import net.sourceforge.pmd.lang.java.ast.ASTClassOrInterfaceDeclaration
-import net.sourceforge.pmd.lang.java.rule.AbstractJavaRule
 import net.sourceforge.pmd.lang.java.symboltable.ClassScope
 import nl.utwente.processing.pmd.AbstractProcessingRule
 
@@ -10,6 +9,10 @@ import nl.utwente.processing.pmd.AbstractProcessingRule
  */
 class StatelessClassRule : AbstractProcessingRule() {
 
+    init {
+        addRuleChainVisit(ASTClassOrInterfaceDeclaration::class.java)
+    }
+
     override fun visit(node: ASTClassOrInterfaceDeclaration, data: Any): Any? {
         //Check if this is a top node, not a inner class.
         if (node.isNested && !node.isInterface && !node.isAbstract) {
@@ -19,6 +22,6 @@ class StatelessClassRule : AbstractProcessingRule() {
                 this.addViolationWithMessage(data, node, message, node.beginLine, node.beginLine, kotlin.arrayOf(scope?.className))
             }
         }
-        return super.visit(node, data)
+        return data
     }
 }
\ No newline at end of file
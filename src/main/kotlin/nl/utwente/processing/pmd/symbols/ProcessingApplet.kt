@@ -1,6 +1,7 @@
 package nl.utwente.processing.pmd.symbols
 
 import nl.utwente.processing.pmd.symbols.ProcessingAppletMethodCategory.*
+import java.util.EnumSet
 
 /**
  * Object which defines Processing Applet definitions.
@@ -385,6 +386,16 @@ object ProcessingApplet {
             "keyPressed" //https://processing.org/reference/keyPressed.html
     )
 
+    /** The draw methods, indexed by name and number of parameters */
+    val DRAW_METHOD_INDEX = ProcessingAppletMethodIndex(DRAW_METHODS)
+
+    /** The categories of the methods that draw shapes */
+    val SHAPE_CATEGORIES: Set<ProcessingAppletMethodCategory> = EnumSet.of(
+            SHAPE, SHAPE_2D, SHAPE_CURVES, SHAPE_3D, SHAPE_ATTRIBUTES, SHAPE_VERTEX, SHAPE_LD)
+
+    /** The names of the event handling methods, without their parameters */
+    val EVENT_METHOD_NAMES: Set<String> = EVENT_METHOD_SIGNATURES.map { it.substringBefore('(') }.toHashSet()
+
     private fun repeatedFloatParam(amount: Int, amountPixels: Int) : List<ProcessingAppletParameter> {
         val result = ArrayList<ProcessingAppletParameter>(amount)
         kotlin.repeat(amount, { i -> result.add(if (i < amountPixels) PARAM_FLOAT_PIXEL else PARAM_FLOAT_NON_PIXEL) })
@@ -0,0 +1,49 @@
+package nl.utwente.processing.pmd.symbols
+
+import java.util.EnumSet
+
+/**
+ * Index of Processing Applet Methods by name and number of parameters, so the method a call refers to can be found
+ * without going through all methods.
+ */
+class ProcessingAppletMethodIndex(methods: Collection<ProcessingAppletMethod>) {
+
+    /** Methods by name, and then by number of parameters. The first method wins if two have the same arity. */
+    private val byName = HashMap<String, Array<ProcessingAppletMethod?>>()
+
+    /** The categories of all methods with a name */
+    private val categoriesByName = HashMap<String, EnumSet<ProcessingAppletMethodCategory>>()
+
+    init {
+        for (method in methods) {
+            val arity = method.parameters.size
+            var byArity = byName[method.name] ?: arrayOfNulls(arity + 1)
+            if (byArity.size <= arity) {
+                byArity = byArity.copyOf(arity + 1)
+            }
+            if (byArity[arity] == null) {
+                byArity[arity] = method
+            }
+            byName[method.name] = byArity
+            categoriesByName.getOrPut(method.name) { EnumSet.noneOf(ProcessingAppletMethodCategory::class.java) }
+                    .add(method.category)
+        }
+    }
+
+    /** Check if there is a method with the given name */
+    operator fun contains(name: String): Boolean {
+        return byName.containsKey(name)
+    }
+
+    /** Find the method with the given name and number of parameters, or returns null when there is none */
+    fun find(name: String, arity: Int): ProcessingAppletMethod? {
+        val byArity = byName[name] ?: return null
+        return if (arity < byArity.size) byArity[arity] else null
+    }
+
+    /** Check if there is a method with the given name in one of the given categories */
+    fun hasCategory(name: String, categories: Set<ProcessingAppletMethodCategory>): Boolean {
+        val categoriesOfName = categoriesByName[name] ?: return false
+        return categoriesOfName.any { it in categories }
+    }
+}
@@ -0,0 +1,172 @@
+package nl.utwente.processing.pmd.utils
+
+import net.sourceforge.pmd.lang.ast.Node
+import net.sourceforge.pmd.lang.java.ast.ASTClassOrInterfaceDeclaration
+import net.sourceforge.pmd.lang.java.ast.ASTCompilationUnit
+import net.sourceforge.pmd.lang.java.ast.ASTFieldDeclaration
+import net.sourceforge.pmd.lang.java.ast.ASTMethodDeclaration
+import net.sourceforge.pmd.lang.java.ast.ASTVariableDeclaratorId
+import net.sourceforge.pmd.lang.java.symboltable.ClassScope
+import net.sourceforge.pmd.lang.java.symboltable.MethodNameDeclaration
+import net.sourceforge.pmd.lang.java.symboltable.SourceFileScope
+import net.sourceforge.pmd.lang.java.symboltable.VariableNameDeclaration
+import net.sourceforge.pmd.lang.symboltable.Scope
+import net.sourceforge.pmd.util.DataMap
+import nl.utwente.processing.pmd.symbols.ProcessingApplet
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * Facts about a compilation unit that several Processing rules need, like the classes, global variables and methods
+ * of a sketch. The context is built the first time a rule asks for it, and is then attached to the compilation unit,
+ * so all rules in a run share it. It does not change after it is built.
+ */
+class AnalysisContext private constructor(root: ASTCompilationUnit) {
+
+    /** Facts about a single class */
+    private class ClassInfo(node: ASTClassOrInterfaceDeclaration) {
+        /** The methods declared in the class itself, not in the classes nested in it */
+        val methods: List<ASTMethodDeclaration> = Collections.unmodifiableList(
+                node.findDescendantsOfType(ASTMethodDeclaration::class.java))
+        /** The classes declared directly in the class by name, the first declared if a name is used twice */
+        val classesByName: Map<String, ASTClassOrInterfaceDeclaration>
+        /** The names of the fields declared in the class */
+        val fieldNames: Set<String>
+        /** The names of the variables declared in the class or in one of the scopes around it */
+        val visibleVariableNames: Set<String>
+
+        init {
+            val classes = HashMap<String, ASTClassOrInterfaceDeclaration>()
+            for (classDec in node.findDescendantsOfType(ASTClassOrInterfaceDeclaration::class.java)) {
+                classes.putIfAbsent(classDec.simpleName, classDec)
+            }
+            classesByName = Collections.unmodifiableMap(classes)
+
+            val scope = node.scope as? ClassScope
+            fieldNames = Collections.unmodifiableSet(scope?.variableDeclarations?.keys?.map { it.image }?.toSet()
+                    ?: emptySet())
+
+            val visible = HashSet<String>()
+            var current: Scope? = scope
+            while (current != null) {
+                current.getDeclarations(VariableNameDeclaration::class.java).keys.forEach { visible.add(it.image) }
+                current = if (current.parent is SourceFileScope) null else current.parent
+            }
+            visibleVariableNames = Collections.unmodifiableSet(visible)
+        }
+    }
+
+    /** All classes in the compilation unit, including nested classes, in the order in which they are declared */
+    val classes: List<ASTClassOrInterfaceDeclaration>
+
+    /** The classes that are not nested in another class. For a sketch, this is the class of the main tab. */
+    val topLevelClasses: List<ASTClassOrInterfaceDeclaration>
+
+    /** The names of the fields of the top-level classes, the global variables of a sketch */
+    val globalFieldNames: Set<String>
+
+    /** The top-level class declaring each global variable, by the name of the first variable of a field declaration */
+    val fieldClasses: Map<String, ASTClassOrInterfaceDeclaration>
+
+    /** The event handling methods declared in each top-level class, like mousePressed() */
+    val eventHandlers: Map<ASTClassOrInterfaceDeclaration, Array<MethodNameDeclaration>>
+
+    /** The methods in the top-level classes, by name */
+    private val methodsByName: Map<String, List<ASTMethodDeclaration>>
+
+    private val classInfo = IdentityHashMap<ASTClassOrInterfaceDeclaration, ClassInfo>()
+
+    init {
+        classes = Collections.unmodifiableList(
+                root.findDescendantsOfType(ASTClassOrInterfaceDeclaration::class.java, true))
+        topLevelClasses = Collections.unmodifiableList(classes.filter { !it.isNested })
+        for (classDec in classes) {
+            classInfo[classDec] = ClassInfo(classDec)
+        }
+
+        val globals = HashSet<String>()
+        val fields = HashMap<String, ASTClassOrInterfaceDeclaration>()
+        val handlers = IdentityHashMap<ASTClassOrInterfaceDeclaration, Array<MethodNameDeclaration>>()
+        val methods = HashMap<String, MutableList<ASTMethodDeclaration>>()
+        for (classDec in topLevelClasses) {
+            globals.addAll(fieldNames(classDec))
+            for (field in classDec.findDescendantsOfType(ASTFieldDeclaration::class.java)) {
+                val fieldClass = field.getFirstParentOfType(ASTClassOrInterfaceDeclaration::class.java)
+                if (fieldClass != null) {
+                    fields[field.getFirstDescendantOfType(ASTVariableDeclaratorId::class.java).name] = fieldClass
+                }
+            }
+            val scope = classDec.scope as? ClassScope
+            if (scope != null) {
+                handlers[classDec] = scope.findMethods(ProcessingApplet.EVENT_METHOD_SIGNATURES)
+            }
+            for (method in methods(classDec)) {
+                methods.getOrPut(method.name) { ArrayList() }.add(method)
+            }
+        }
+        globalFieldNames = Collections.unmodifiableSet(globals)
+        fieldClasses = Collections.unmodifiableMap(fields)
+        eventHandlers = Collections.unmodifiableMap(handlers)
+        methodsByName = Collections.unmodifiableMap(methods)
+    }
+
+    private fun info(classDec: ASTClassOrInterfaceDeclaration): ClassInfo {
+        return classInfo[classDec] ?: throw IllegalArgumentException(
+                "Class ${classDec.simpleName} is not part of this compilation unit")
+    }
+
+    /** The methods declared in a class itself, not in the classes nested in it */
+    fun methods(classDec: ASTClassOrInterfaceDeclaration): List<ASTMethodDeclaration> {
+        return info(classDec).methods
+    }
+
+    /** Find a class declared directly in a class by its simple name, or returns null when there is none */
+    fun findClass(name: String, within: ASTClassOrInterfaceDeclaration): ASTClassOrInterfaceDeclaration? {
+        return info(within).classesByName[name]
+    }
+
+    /** The names of the fields declared in a class */
+    fun fieldNames(classDec: ASTClassOrInterfaceDeclaration): Set<String> {
+        return info(classDec).fieldNames
+    }
+
+    /** The names of the variables that can be used in a class: its fields, and those of the scopes around it */
+    fun visibleVariableNames(classDec: ASTClassOrInterfaceDeclaration): Set<String> {
+        return info(classDec).visibleVariableNames
+    }
+
+    /** Check if a method with the given name is declared in one of the top-level classes */
+    fun isTopLevelMethod(name: String): Boolean {
+        return methodsByName.containsKey(name)
+    }
+
+    companion object {
+        private val KEY = DataMap.simpleDataKey<AnalysisContext>("nl.utwente.processing.pmd.AnalysisContext")
+
+        /** The context of the compilation unit a node is part of, built the first time it is asked for */
+        fun of(node: Node): AnalysisContext {
+            val root = node as? ASTCompilationUnit
+                    ?: node.getFirstParentOfType(ASTCompilationUnit::class.java)
+                    ?: throw IllegalArgumentException("Node is not part of a compilation unit")
+            val userMap = root.userMap
+            return userMap.get(KEY) ?: AnalysisContext(root).also { userMap.set(KEY, it) }
+        }
+
+        /**
+         * Build the context of the compilation unit a node is part of and the call graphs of its classes, which the
+         * rules would otherwise build when they first need them. Used to measure them apart from the rules.
+         */
+        @JvmStatic
+        fun prepare(node: Node) {
+            for (classDec in of(node).classes) {
+                (classDec.scope as? ClassScope)?.callGraph
+            }
+        }
+    }
+}
+
+/**
+ * Property on nodes with the analysis context of their compilation unit.
+ */
+val Node.analysisContext : AnalysisContext
+    get() = AnalysisContext.of(this)
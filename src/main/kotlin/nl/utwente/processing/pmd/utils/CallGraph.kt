@@ -0,0 +1,209 @@
+package nl.utwente.processing.pmd.utils
+
+import net.sourceforge.pmd.lang.java.ast.ASTClassOrInterfaceDeclaration
+import net.sourceforge.pmd.lang.java.ast.ASTMethodDeclaration
+import net.sourceforge.pmd.lang.java.symboltable.ClassScope
+import net.sourceforge.pmd.util.DataMap
+import java.util.BitSet
+import java.util.IdentityHashMap
+
+/**
+ * Call graph of the methods declared in a class scope and in the classes nested directly in it. Methods are
+ * numbered, calls are stored as arrays of these numbers, and the methods reachable from every method are computed
+ * once, on the strongly connected components of the graph.
+ */
+class CallGraph(scope: ClassScope) {
+
+    /** Methods by number */
+    private val methods = ArrayList<ASTMethodDeclaration>()
+    /** Numbers of the methods */
+    private val indices = IdentityHashMap<ASTMethodDeclaration, Int>()
+    /** Methods called by each method */
+    private val callees: Array<IntArray>
+    /** Methods calling each method */
+    private val callers: Array<IntArray>
+    /** Methods that are called from outside any method, like from a field initializer */
+    private val calledOutsideMethods = BitSet()
+    /** Methods reachable from each method, including the method itself */
+    private val reachable: Array<BitSet>
+
+    init {
+        val declarations = HashMap(scope.methodDeclarations.mapKeysToNodes())
+        for (classDecl in scope.classDeclarations.keys) {
+            val node = classDecl.accessNodeParent as? ASTClassOrInterfaceDeclaration
+            val nestedScope = node?.scope as? ClassScope
+            nestedScope?.let { s -> declarations.putAll(s.methodDeclarations.mapKeysToNodes()) }
+        }
+
+        val edges = ArrayList<Pair<Int, Int>>()
+        for ((callee, occurrences) in declarations) {
+            val calleeIndex = index(callee)
+            for (occurrence in occurrences) {
+                val caller = occurrence.location.getFirstParentOfType(ASTMethodDeclaration::class.java)
+                if (caller == null) {
+                    calledOutsideMethods.set(calleeIndex)
+                } else {
+                    edges.add(Pair(index(caller), calleeIndex))
+                }
+            }
+        }
+
+        val size = methods.size
+        callees = adjacency(size, edges) { it.first to it.second }
+        callers = adjacency(size, edges) { it.second to it.first }
+        reachable = computeReachable()
+    }
+
+    private fun index(method: ASTMethodDeclaration): Int {
+        return indices.getOrPut(method) {
+            methods.add(method)
+            methods.size - 1
+        }
+    }
+
+    /** Adjacency arrays without duplicates, for the edges mapped to (from, to) pairs */
+    private fun adjacency(size: Int, edges: List<Pair<Int, Int>>, direction: (Pair<Int, Int>) -> Pair<Int, Int>) : Array<IntArray> {
+        val sets = Array(size) { BitSet() }
+        for (edge in edges) {
+            val (from, to) = direction(edge)
+            sets[from].set(to)
+        }
+        return Array(size) { sets[it].stream().toArray() }
+    }
+
+    /**
+     * Find the strongly connected components with Tarjan's algorithm. It completes every component after all
+     * components it can reach, so their reachable sets are known by then and can simply be combined.
+     */
+    private fun computeReachable(): Array<BitSet> {
+        val size = methods.size
+        val result = arrayOfNulls<BitSet>(size)
+        val order = IntArray(size) { -1 }
+        val lowLink = IntArray(size)
+        val onStack = BooleanArray(size)
+        val componentStack = IntArray(size)
+        var componentStackSize = 0
+        // The call stack of the depth first search, with the next callee to visit for every method on it
+        val searchStack = IntArray(size)
+        val nextCallee = IntArray(size)
+        var counter = 0
+
+        for (start in 0 until size) {
+            if (order[start] >= 0) continue
+            var depth = 0
+            searchStack[depth] = start
+            order[start] = counter; lowLink[start] = counter; counter++
+            componentStack[componentStackSize++] = start
+            onStack[start] = true
+            nextCallee[start] = 0
+
+            while (depth >= 0) {
+                val method = searchStack[depth]
+                if (nextCallee[method] < callees[method].size) {
+                    val callee = callees[method][nextCallee[method]++]
+                    if (order[callee] < 0) {
+                        order[callee] = counter; lowLink[callee] = counter; counter++
+                        componentStack[componentStackSize++] = callee
+                        onStack[callee] = true
+                        nextCallee[callee] = 0
+                        searchStack[++depth] = callee
+                    } else if (onStack[callee]) {
+                        lowLink[method] = minOf(lowLink[method], order[callee])
+                    }
+                    continue
+                }
+
+                if (lowLink[method] == order[method]) {
+                    // The method is the root of a component: its members are on top of the component stack
+                    val members = BitSet()
+                    var first = componentStackSize
+                    do {
+                        val member = componentStack[--first]
+                        members.set(member)
+                    } while (member != method)
+                    val reach = members.clone() as BitSet
+                    for (i in first until componentStackSize) {
+                        for (callee in callees[componentStack[i]]) {
+                            if (!members.get(callee)) reach.or(result[callee])
+                        }
+                    }
+                    for (i in first until componentStackSize) {
+                        val member = componentStack[i]
+                        onStack[member] = false
+                        result[member] = reach
+                    }
+                    componentStackSize = first
+                }
+
+                depth--
+                if (depth >= 0) {
+                    val caller = searchStack[depth]
+                    lowLink[caller] = minOf(lowLink[caller], lowLink[method])
+                }
+            }
+        }
+        return Array(size) { result[it]!! }
+    }
+
+    private fun toMethods(set: BitSet): MutableSet<ASTMethodDeclaration> {
+        val result = HashSet<ASTMethodDeclaration>()
+        set.stream().forEach { result.add(methods[it]) }
+        return result
+    }
+
+    private fun reachableSet(from: Collection<ASTMethodDeclaration>): BitSet {
+        val result = BitSet()
+        for (method in from) {
+            val index = indices[method]
+            if (index != null) result.or(reachable[index])
+        }
+        return result
+    }
+
+    /** Map of callers to the methods they call directly */
+    fun calls(): Map<ASTMethodDeclaration, Set<ASTMethodDeclaration>> {
+        val result = HashMap<ASTMethodDeclaration, Set<ASTMethodDeclaration>>()
+        for (i in methods.indices) {
+            if (callees[i].isNotEmpty()) result[methods[i]] = callees[i].map { methods[it] }.toSet()
+        }
+        return result
+    }
+
+    /** All methods that are in the call stacks of the given methods, including these methods */
+    fun reachableFrom(from: Collection<ASTMethodDeclaration>): Set<ASTMethodDeclaration> {
+        // Methods without calls in the graph are not numbered, but are still in their own call stack
+        val result = toMethods(reachableSet(from))
+        result.addAll(from)
+        return result
+    }
+
+    /**
+     * The methods that are only in the call stacks of the given methods. Methods that are also called by methods
+     * outside of these call stacks, or from outside any method, are left out.
+     */
+    fun uniquelyReachableFrom(from: Collection<ASTMethodDeclaration>): Set<ASTMethodDeclaration> {
+        val stack = reachableSet(from)
+        val unique = BitSet()
+        stack.stream().forEach { method ->
+            if (!calledOutsideMethods.get(method) && callers[method].all { stack.get(it) }) unique.set(method)
+        }
+        val result = toMethods(unique)
+        // Methods without calls in the graph are not numbered, and nothing calls them
+        from.filterTo(result) { it !in indices }
+        return result
+    }
+
+    companion object {
+        private val KEY = DataMap.simpleDataKey<CallGraph>("nl.utwente.processing.pmd.CallGraph")
+
+        /**
+         * The call graph of a class scope, built the first time it is asked for. It is stored on the declaration of
+         * the class, so it is dropped together with the tree.
+         */
+        fun of(scope: ClassScope): CallGraph {
+            val node = scope.classDeclaration?.node ?: return CallGraph(scope)
+            val userMap = node.userMap
+            return userMap.get(KEY) ?: CallGraph(scope).also { userMap.set(KEY, it) }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package nl.utwente.processing.pmd.utils
 import net.sourceforge.pmd.lang.ast.Node
 import net.sourceforge.pmd.lang.java.ast.*
 import nl.utwente.processing.pmd.symbols.ProcessingAppletMethod
+import nl.utwente.processing.pmd.symbols.ProcessingAppletMethodIndex
 import java.util.*
 
 val ASTPrimaryExpression.isMethodCall : Boolean
@@ -187,4 +188,28 @@ fun ASTPrimaryExpression.matches(vararg methods: ProcessingAppletMethod) : Proce
 
 fun ASTPrimaryExpression.matches(vararg variables: String) : String? {
     return Arrays.stream(variables).filter { m -> this.matches(m) }.findFirst().orElse(null)
-}
\ No newline at end of file
+}
+
+/**
+ * Find the method of an index that this expression calls, or returns null when it does not call one of them. This
+ * gives the same result as matching against all methods of the index, but only looks at the methods with the same name
+ * and number of arguments.
+ */
+fun ASTPrimaryExpression.matches(methods: ProcessingAppletMethodIndex) : ProcessingAppletMethod? {
+    val prefix = this.getFirstChildOfType(ASTPrimaryPrefix::class.java) ?: return null
+    if (prefix.usesThisModifier() || prefix.usesSuperModifier()) return null
+    val name = prefix.getFirstChildOfType(ASTName::class.java) ?: return null
+    if (name.image !in methods || name.nameDeclaration != null) return null
+    val suffix = this.getFirstChildOfType(ASTPrimarySuffix::class.java) ?: return null
+    return if (suffix.isArguments) methods.find(name.image, suffix.argumentCount) else null
+}
+
+/**
+ * Find the variable of a set that this expression uses, or returns null when it does not use one of them.
+ */
+fun ASTPrimaryExpression.matches(variables: Set<String>) : String? {
+    val prefix = this.getFirstChildOfType(ASTPrimaryPrefix::class.java) ?: return null
+    if (prefix.usesThisModifier() || prefix.usesSuperModifier()) return null
+    val name = prefix.getFirstChildOfType(ASTName::class.java) ?: return null
+    return if (name.image in variables && name.nameDeclaration == null) name.image else null
+}
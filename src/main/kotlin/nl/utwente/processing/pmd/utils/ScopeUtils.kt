@@ -1,6 +1,5 @@
 package nl.utwente.processing.pmd.utils
 
-import net.sourceforge.pmd.lang.java.ast.ASTClassOrInterfaceDeclaration
 import net.sourceforge.pmd.lang.java.ast.ASTMethodDeclaration
 import net.sourceforge.pmd.lang.java.symboltable.ClassScope
 import net.sourceforge.pmd.lang.java.symboltable.MethodNameDeclaration
@@ -33,27 +32,17 @@ fun <T> Scope.findDeclaration(node: ScopedNode, type: Class<T>): T? {
     }
 }
 
+/**
+ * Property on class scopes with the call graph of the methods in the scope, which is built only once per scope.
+ */
+val ClassScope.callGraph: CallGraph
+    get() = CallGraph.of(this)
+
 /**
  * Extension method which returns a map of callers mapped to callee's.
  */
 fun ClassScope.callStack(): Map<ASTMethodDeclaration, Set<ASTMethodDeclaration>> {
-    val methods = HashMap(this.methodDeclarations.mapKeysToNodes())
-    for (classDecl in this.classDeclarations.keys) {
-        val node = classDecl.accessNodeParent as? ASTClassOrInterfaceDeclaration
-        val scope = node?.scope as? ClassScope
-        scope?.let { s -> methods.putAll(s.methodDeclarations.mapKeysToNodes()) }
-    }
-    val result = HashMap<ASTMethodDeclaration, MutableSet<ASTMethodDeclaration>>()
-    methods.let {
-        for ((callee, occurences) in methods) {
-            occurences?.let {
-                occurences.stream().
-                        map { o -> o.location.getFirstParentOfType(ASTMethodDeclaration::class.java) }.
-                        forEach { caller -> result.putIfAbsent(caller, HashSet(setOf(callee)))?.add(callee) }
-            }
-        }
-    }
-    return result
+    return this.callGraph.calls()
 }
 
 /**
@@ -61,19 +50,7 @@ fun ClassScope.callStack(): Map<ASTMethodDeclaration, Set<ASTMethodDeclaration>>
  * @param methods The methods to get the call stacks for.
  */
 fun ClassScope.callStack(vararg methods: MethodNameDeclaration) : Set<ASTMethodDeclaration> {
-    val totalStack = this.callStack();
-    val stack = HashSet<ASTMethodDeclaration>()
-    for (method in methods) {
-        val methodDecl = method.methodNameDeclaratorNode.getFirstParentOfType(ASTMethodDeclaration::class.java)
-        stack.addAll(totalStack[methodDecl] ?: emptySet())
-        stack.add(methodDecl)
-    }
-    var size: Int
-    do {
-        size = stack.size
-        HashSet(stack).forEach { m -> stack.addAll(this.callStack()[m] ?: emptySet()) }
-    } while (stack.size != size)
-    return stack
+    return this.callGraph.reachableFrom(methods.map { it.methodDeclaration })
 }
 
 /**
@@ -82,13 +59,12 @@ fun ClassScope.callStack(vararg methods: MethodNameDeclaration) : Set<ASTMethodD
  * @param method The methods to get the locally unique call stacks for.
  */
 fun ClassScope.uniqueCallStack(vararg methods: MethodNameDeclaration) : Set<ASTMethodDeclaration> {
-    val stack = this.callStack()
-    val uniqueStack = HashSet(this.callStack(*methods))
-    return uniqueStack.stream().filter {
-        m -> uniqueStack.containsAll(stack.keysByValue(m))
-    }.collect(Collectors.toSet())
+    return this.callGraph.uniquelyReachableFrom(methods.map { it.methodDeclaration })
 }
 
+private val MethodNameDeclaration.methodDeclaration: ASTMethodDeclaration
+    get() = this.methodNameDeclaratorNode.getFirstParentOfType(ASTMethodDeclaration::class.java)
+
 /**
  * Extension method which finds a method defined in the class scope, or returns null when not defined.
  * @param signature The signature of the method to find in the scope.